@@ -0,0 +1,268 @@
+package cluster;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+/**
+ * Zoom aware hierarchical point clustering (same idea as the supercluster library). When it is created, points are
+ * clustered greedily from the deepest zoom level to the lowest one: at every level each point or cluster of the level
+ * below absorbs its unvisited neighbours closer than the cluster radius (in screen pixels at that zoom). Every level is
+ * kept in flat arrays with its own KDIndex, so a viewport query only touches the items it returns.
+ *
+ * Clusters aggregate the number of points they contain and the maximum of a numeric property (for example the
+ * magnitude of earthquakes).
+ *
+ * Typical use, once per frame:
+ *
+ * ClusterIndex.Result visible = index.query(map);
+ * for(int k = 0; k < visible.size(); k++) ... visible.getLocation(k), visible.getCount(k) ...
+ *
+ * @see KDIndex
+ *
+ */
+public class ClusterIndex {
+
+	// Size in pixels of a map tile. The world is TILE_SIZE * 2^zoom pixels wide
+	private static final int TILE_SIZE = 256;
+
+	public static final float DEFAULT_RADIUS = 40;
+	public static final int DEFAULT_MIN_ZOOM = 0;
+	public static final int DEFAULT_MAX_ZOOM = 16;
+
+	// One level per zoom, levels[maxZoom + 1] holds the single points
+	private final Level[] levels;
+	private final int minZoom, maxZoom;
+
+	// Reused by query(), so the index should be queried from a single thread
+	private final Result result = new Result();
+
+	/**
+	 * One zoom level: points (count == 1) and clusters as rows of flat arrays
+	 */
+	private static class Level {
+		int size;
+		// position in normalized web mercator coordinates, 0..1
+		float[] x, y;
+		int[] count;
+		float[] maxValue;
+		// index of the feature for single points, -1 for clusters
+		int[] feature;
+		KDIndex index;
+
+		Level(int capacity) {
+			x = new float[capacity];
+			y = new float[capacity];
+			count = new int[capacity];
+			maxValue = new float[capacity];
+			feature = new int[capacity];
+		}
+
+		void add(float px, float py, int pointCount, float value, int featureIndex) {
+			x[size] = px;
+			y[size] = py;
+			count[size] = pointCount;
+			maxValue[size] = value;
+			feature[size] = featureIndex;
+			size++;
+		}
+	}
+
+	public ClusterIndex(List<PointFeature> features, String valueProperty) {
+		this(features, valueProperty, DEFAULT_RADIUS, DEFAULT_MIN_ZOOM, DEFAULT_MAX_ZOOM);
+	}
+
+	/**
+	 * @param features points to cluster
+	 * @param valueProperty numeric property to aggregate (max) in clusters, may be null
+	 * @param radius cluster radius in screen pixels
+	 * @param minZoom lowest zoom level with clusters
+	 * @param maxZoom highest zoom level with clusters. Above it every point is shown alone
+	 */
+	public ClusterIndex(List<PointFeature> features, String valueProperty, float radius, int minZoom, int maxZoom) {
+		this.minZoom = minZoom;
+		this.maxZoom = maxZoom;
+		levels = new Level[maxZoom + 2];
+
+		int n = features.size();
+		Level points = new Level(n);
+		for(int i = 0; i < n; i++) {
+			PointFeature feature = features.get(i);
+			Location location = feature.getLocation();
+			points.add(lonX(location.getLon()), latY(location.getLat()), 1, getValue(feature, valueProperty), i);
+		}
+		points.index = new KDIndex(points.x, points.y, points.size);
+		levels[maxZoom + 1] = points;
+
+		// cluster the level above into the current one
+		IdList neighbours = new IdList();
+		for(int z = maxZoom; z >= minZoom; z--) {
+			Level previous = levels[z + 1];
+			Level level = new Level(previous.size);
+			float r = radius / (TILE_SIZE * (float)Math.pow(2, z));
+			boolean[] visited = new boolean[previous.size];
+
+			for(int i = 0; i < previous.size; i++) {
+				if(visited[i]) continue;
+				visited[i] = true;
+
+				neighbours.clear();
+				previous.index.within(previous.x[i], previous.y[i], r, neighbours);
+
+				int count = previous.count[i];
+				float wx = previous.x[i] * count;
+				float wy = previous.y[i] * count;
+				float value = previous.maxValue[i];
+				for(int k = 0; k < neighbours.size(); k++) {
+					int j = neighbours.get(k);
+					if(visited[j]) continue;
+					visited[j] = true;
+					count += previous.count[j];
+					wx += previous.x[j] * previous.count[j];
+					wy += previous.y[j] * previous.count[j];
+					value = max(value, previous.maxValue[j]);
+				}
+
+				if(count == previous.count[i]) {
+					// nothing to merge, the item goes up as it is
+					level.add(previous.x[i], previous.y[i], count, value, previous.feature[i]);
+				}else {
+					level.add(wx / count, wy / count, count, value, -1);
+				}
+			}
+			level.index = new KDIndex(level.x, level.y, level.size);
+			levels[z] = level;
+		}
+	}
+
+	/**
+	 * Clusters and single points visible in the current viewport of the map
+	 */
+	public Result query(UnfoldingMap map) {
+		Location topLeft = map.getTopLeftBorder();
+		Location bottomRight = map.getBottomRightBorder();
+		return query(map.getZoomLevel(), topLeft.getLon(), bottomRight.getLat(), bottomRight.getLon(), topLeft.getLat());
+	}
+
+	/**
+	 * Clusters and single points at the given zoom level inside the bounds. If west > east the bounds cross the
+	 * antimeridian. The returned Result is reused by the next query.
+	 */
+	public Result query(int zoom, float west, float south, float east, float north) {
+		Level level = levels[Math.max(minZoom, Math.min(zoom, maxZoom + 1))];
+		result.level = level;
+		result.ids.clear();
+
+		float minY = latY(north);
+		float maxY = latY(south);
+		if(west <= east) {
+			level.index.range(lonX(west), minY, lonX(east), maxY, result.ids);
+		}else {
+			level.index.range(lonX(west), minY, 1, maxY, result.ids);
+			level.index.range(0, minY, lonX(east), maxY, result.ids);
+		}
+		return result;
+	}
+
+	public int getMinZoom() {
+		return minZoom;
+	}
+
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+
+	/**
+	 * Items returned by a query. Each item is a cluster or a single point
+	 */
+	public static class Result {
+		private Level level;
+		private final IdList ids = new IdList();
+
+		public int size() {
+			return ids.size();
+		}
+
+		public Location getLocation(int k) {
+			int i = ids.get(k);
+			return new Location(yLat(level.y[i]), xLon(level.x[i]));
+		}
+
+		/**
+		 * @return number of points in the item (1 for single points)
+		 */
+		public int getCount(int k) {
+			return level.count[ids.get(k)];
+		}
+
+		/**
+		 * @return maximum value of the aggregated property among the points of the item (NaN if none has it)
+		 */
+		public float getMaxValue(int k) {
+			return level.maxValue[ids.get(k)];
+		}
+
+		public boolean isCluster(int k) {
+			return level.feature[ids.get(k)] == -1;
+		}
+
+		/**
+		 * @return index in the original feature list for single points, -1 for clusters
+		 */
+		public int getFeature(int k) {
+			return level.feature[ids.get(k)];
+		}
+	}
+
+	private static float getValue(PointFeature feature, String property) {
+		if(property == null) return Float.NaN;
+		Object value = feature.getProperty(property);
+		if(value instanceof Number) return ((Number)value).floatValue();
+		if(value != null) {
+			try {
+				return Float.parseFloat(value.toString());
+			}catch(NumberFormatException e) {
+				// not a number, ignore it
+			}
+		}
+		return Float.NaN;
+	}
+
+	// max ignoring NaN (points without the property)
+	private static float max(float a, float b) {
+		if(Float.isNaN(a)) return b;
+		if(Float.isNaN(b)) return a;
+		return Math.max(a, b);
+	}
+
+	// Location <-> normalized web mercator coordinates
+
+	private static float lonX(float lon) {
+		return lon / 360 + 0.5f;
+	}
+
+	private static float latY(float lat) {
+		double sin = Math.sin(Math.toRadians(lat));
+		double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+		return (float)Math.max(0, Math.min(1, y));
+	}
+
+	private static float xLon(float x) {
+		return (x - 0.5f) * 360;
+	}
+
+	private static float yLat(float y) {
+		double y2 = (180 - y * 360) * Math.PI / 180;
+		return (float)(360 * Math.atan(Math.exp(y2)) / Math.PI - 90);
+	}
+
+	@Override
+	public String toString() {
+		int[] sizes = new int[levels.length - minZoom];
+		for(int z = minZoom; z < levels.length; z++) sizes[z - minZoom] = levels[z].size;
+		return "ClusterIndex items per zoom from " + minZoom + ": " + Arrays.toString(sizes);
+	}
+}
@@ -0,0 +1,28 @@
+package cluster;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints, reused between queries to avoid boxing and allocations
+ */
+public class IdList {
+	private int[] ids = new int[64];
+	private int size = 0;
+
+	public void add(int id) {
+		if(size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+		ids[size++] = id;
+	}
+
+	public int get(int i) {
+		return ids[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,132 @@
+package cluster;
+
+import java.util.Arrays;
+
+/**
+ * Static 2D KD-tree over points stored in flat arrays. The tree is built once by sorting the points in place (no node
+ * objects), and answers range and radius queries by appending the ids of the matching points to an IdList.
+ *
+ * @see ClusterIndex
+ *
+ */
+class KDIndex {
+
+	// leaves with this many points or less are scanned linearly
+	private static final int NODE_SIZE = 64;
+
+	private final int[] ids;
+	private final float[] xs, ys;
+
+	/**
+	 * @param xs x coordinate of each point (not copied, must not change afterwards)
+	 * @param ys y coordinate of each point
+	 * @param n number of points
+	 */
+	KDIndex(float[] xs, float[] ys, int n) {
+		ids = new int[n];
+		this.xs = Arrays.copyOf(xs, n);
+		this.ys = Arrays.copyOf(ys, n);
+		for(int i = 0; i < n; i++) ids[i] = i;
+		sort(0, n - 1, 0);
+	}
+
+	/**
+	 * Adds to result the ids of the points inside [minX, maxX] x [minY, maxY]
+	 */
+	void range(float minX, float minY, float maxX, float maxY, IdList result) {
+		range(minX, minY, maxX, maxY, result, 0, ids.length - 1, 0);
+	}
+
+	private void range(float minX, float minY, float maxX, float maxY, IdList result, int left, int right, int axis) {
+		if(right - left <= NODE_SIZE) {
+			for(int i = left; i <= right; i++) {
+				if(xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) result.add(ids[i]);
+			}
+			return;
+		}
+		int m = (left + right) >> 1;
+		float x = xs[m];
+		float y = ys[m];
+		if(x >= minX && x <= maxX && y >= minY && y <= maxY) result.add(ids[m]);
+
+		float value = axis == 0 ? x : y;
+		if((axis == 0 ? minX : minY) <= value) range(minX, minY, maxX, maxY, result, left, m - 1, 1 - axis);
+		if((axis == 0 ? maxX : maxY) >= value) range(minX, minY, maxX, maxY, result, m + 1, right, 1 - axis);
+	}
+
+	/**
+	 * Adds to result the ids of the points at distance r or less of (qx, qy)
+	 */
+	void within(float qx, float qy, float r, IdList result) {
+		within(qx, qy, r * r, r, result, 0, ids.length - 1, 0);
+	}
+
+	private void within(float qx, float qy, float r2, float r, IdList result, int left, int right, int axis) {
+		if(right - left <= NODE_SIZE) {
+			for(int i = left; i <= right; i++) {
+				if(distance2(xs[i], ys[i], qx, qy) <= r2) result.add(ids[i]);
+			}
+			return;
+		}
+		int m = (left + right) >> 1;
+		if(distance2(xs[m], ys[m], qx, qy) <= r2) result.add(ids[m]);
+
+		float value = axis == 0 ? xs[m] : ys[m];
+		float q = axis == 0 ? qx : qy;
+		if(q - r <= value) within(qx, qy, r2, r, result, left, m - 1, 1 - axis);
+		if(q + r >= value) within(qx, qy, r2, r, result, m + 1, right, 1 - axis);
+	}
+
+	private static float distance2(float ax, float ay, float bx, float by) {
+		float dx = ax - bx;
+		float dy = ay - by;
+		return dx * dx + dy * dy;
+	}
+
+	// Sorts the points so that the median of every node splits it by the node axis
+	private void sort(int left, int right, int axis) {
+		if(right - left <= NODE_SIZE) return;
+		int m = (left + right) >> 1;
+		select(m, left, right, axis == 0 ? xs : ys);
+		sort(left, m - 1, 1 - axis);
+		sort(m + 1, right, 1 - axis);
+	}
+
+	// Quickselect: leaves the k-th smallest value at position k, smaller ones before it and bigger ones after
+	private void select(int k, int left, int right, float[] values) {
+		while(right > left) {
+			float pivot = values[k];
+			int i = left;
+			int j = right;
+			swap(left, k);
+			if(values[right] > pivot) swap(left, right);
+			while(i < j) {
+				swap(i, j);
+				i++;
+				j--;
+				while(values[i] < pivot) i++;
+				while(values[j] > pivot) j--;
+			}
+			if(values[left] == pivot) {
+				swap(left, j);
+			}else {
+				j++;
+				swap(j, right);
+			}
+			if(j <= k) left = j + 1;
+			if(k <= j) right = j - 1;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		float x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		float y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+	}
+}
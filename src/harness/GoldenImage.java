@@ -0,0 +1,104 @@
+package harness;
+
+import java.io.File;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * Compares rendered frames with stored golden frames. Fonts and antialiasing differ slightly from one machine to
+ * another, so two frames match when few enough pixels differ by more than a tolerance in any channel.
+ *
+ * A missing golden frame is a failure (MISSING), so a run can't pass without comparing anything. Golden frames are
+ * recorded from the rendered ones only when asked to (HarnessMap --record) and then committed with the script.
+ *
+ * @see HarnessMap
+ *
+ */
+public class GoldenImage {
+
+	public enum Result { MATCH, MISMATCH, MISSING, RECORDED }
+
+	private final File goldenDirectory;
+	private final File outputDirectory;
+	// Largest difference of a channel (0-255) that still counts as the same pixel
+	private final int tolerance;
+	// Largest fraction of different pixels that still counts as the same frame
+	private final float maxDifferentPixels;
+	private final boolean record;
+
+	// Fraction of different pixels of the last comparison
+	private float lastDifference;
+
+	/**
+	 * @param goldenDirectory where the golden frames are (name.png)
+	 * @param outputDirectory where the rendered frame and the differences are written when a frame doesn't match (or
+	 *                        its golden frame is missing)
+	 * @param tolerance
+	 * @param maxDifferentPixels
+	 * @param record true to overwrite every golden frame with the rendered one
+	 */
+	public GoldenImage(File goldenDirectory, File outputDirectory, int tolerance, float maxDifferentPixels, boolean record) {
+		this.goldenDirectory = goldenDirectory;
+		this.outputDirectory = outputDirectory;
+		this.tolerance = tolerance;
+		this.maxDifferentPixels = maxDifferentPixels;
+		this.record = record;
+	}
+
+	public Result check(PApplet p, String name, PImage frame) {
+		lastDifference = 0;
+		File golden = new File(goldenDirectory, name + ".png");
+		if(record) {
+			goldenDirectory.mkdirs();
+			frame.save(golden.getAbsolutePath());
+			return Result.RECORDED;
+		}
+		if(!golden.isFile()) {
+			// keep the frame, so it can be looked at before recording it
+			lastDifference = 1;
+			outputDirectory.mkdirs();
+			frame.save(new File(outputDirectory, name + ".png").getAbsolutePath());
+			return Result.MISSING;
+		}
+
+		PImage expected = p.loadImage(golden.getAbsolutePath());
+		PImage difference = p.createImage(frame.width, frame.height, PApplet.RGB);
+		frame.loadPixels();
+		int different;
+		if(expected == null || expected.width != frame.width || expected.height != frame.height) {
+			different = frame.pixels.length;
+		}else {
+			expected.loadPixels();
+			difference.loadPixels();
+			different = 0;
+			for(int i = 0; i < frame.pixels.length; i++) {
+				int a = frame.pixels[i], b = expected.pixels[i];
+				int delta = Math.max(Math.abs((a >> 16 & 0xFF) - (b >> 16 & 0xFF)),
+						Math.max(Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF)), Math.abs((a & 0xFF) - (b & 0xFF))));
+				if(delta > tolerance) {
+					different++;
+					difference.pixels[i] = 0xFFFF0000;
+				}else {
+					// faded frame, so the differences stand out
+					difference.pixels[i] = 0xFF000000 | ((a >> 16 & 0xFF) / 4) << 16 | ((a >> 8 & 0xFF) / 4) << 8 | (a & 0xFF) / 4;
+				}
+			}
+			difference.updatePixels();
+		}
+		lastDifference = different / (float)frame.pixels.length;
+		if(lastDifference <= maxDifferentPixels) return Result.MATCH;
+
+		outputDirectory.mkdirs();
+		frame.save(new File(outputDirectory, name + ".png").getAbsolutePath());
+		difference.save(new File(outputDirectory, name + "-diff.png").getAbsolutePath());
+		return Result.MISMATCH;
+	}
+
+	/**
+	 * @return fraction of different pixels in the last comparison
+	 */
+	public float getLastDifference() {
+		return lastDifference;
+	}
+}
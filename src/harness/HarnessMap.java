@@ -0,0 +1,238 @@
+package harness;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import map.Map;
+import processing.core.PGraphicsJava2D;
+import processing.event.Event;
+
+/**
+ * Performance and rendering regression harness. Runs the whole Map sketch with the software renderer (JAVA2D) and
+ * the local MBTiles (no GPU, no network, no display), replays a script of interactions and, for every step:
+ *  - records the time of every frame (the time of draw) and checks its 95th percentile against the budget of the step
+ *  - once the events are handled, the tiles loaded and the countries projected, compares the frame with its golden
+ *    frame
+ *
+ * Every step runs the frames of its events, waits up to MAX_SETTLE_FRAMES frames for the tiles and the countries,
+ * and then renders MEASURED_FRAMES more frames. The results are printed and written to report.csv in the output
+ * directory; the process exits with status 1 if any step is over budget, doesn't match its golden frame or has no
+ * golden frame.
+ *
+ * The sketch never gets a window: size() gives it an offscreen JAVA2D buffer, the harness runs the frames itself
+ * (the same calls as PApplet.handleDraw) and compares that buffer. Processing 2 sketches are applets, which refuse to
+ * be constructed on a headless JVM even when they are never shown, so the sketch is constructed with that check
+ * turned off. That needs java.awt opened to the harness; from the project folder:
+ *
+ *   java -Djava.awt.headless=true --add-opens java.desktop/java.awt=ALL-UNNAMED -cp "build:lib/*" harness.HarnessMap
+ *
+ * Arguments (all optional): --script file, --golden directory, --out directory, --tiles mbtiles file,
+ * --tolerance channel difference, --max-diff fraction of pixels, --record (overwrite the golden frames)
+ *
+ * Golden frames are only written with --record. After changing the script or the rendering on purpose, run it once
+ * with --record, look at the frames and commit harness/golden.
+ *
+ * @see Script
+ * @see GoldenImage
+ *
+ */
+public class HarnessMap extends Map {
+
+	private static final int MAX_SETTLE_FRAMES = 120;
+	private static final int MEASURED_FRAMES = 10;
+	// A script that doesn't finish by then (a step waiting on something that never happens) fails
+	private static final int MAX_FRAMES = 20000;
+
+	private List<Script.Step> steps;
+	private GoldenImage golden;
+	private File outputDirectory;
+	private String tiles;
+
+	// Current step and its progress
+	private int step = 0;
+	private int batch = 0;
+	private int settleFrames = 0;
+	private int measuredFrames = 0;
+	private List<Long> timings = new ArrayList<Long>();
+
+	private List<String> report = new ArrayList<String>();
+	private int failures = 0;
+
+	public static void main(String[] args) {
+		String script = "harness/script.txt";
+		String goldenDirectory = "harness/golden";
+		String outputDirectory = "harness/out";
+		String tiles = "data/blankLight-1-3.mbtiles";
+		int tolerance = 24;
+		float maxDifferentPixels = 0.002f;
+		boolean record = false;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--script")) script = args[++i];
+			else if(args[i].equals("--golden")) goldenDirectory = args[++i];
+			else if(args[i].equals("--out")) outputDirectory = args[++i];
+			else if(args[i].equals("--tiles")) tiles = args[++i];
+			else if(args[i].equals("--tolerance")) tolerance = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--max-diff")) maxDifferentPixels = Float.parseFloat(args[++i]);
+			else if(args[i].equals("--record")) record = true;
+			else throw new IllegalArgumentException("Unknown argument " + args[i]);
+		}
+
+		HarnessMap harness = create();
+		try {
+			harness.steps = Script.load(new File(script));
+		}catch(IOException e) {
+			System.err.println("Could not load the script: " + e.getMessage());
+			System.exit(2);
+		}
+		harness.outputDirectory = new File(outputDirectory);
+		harness.golden = new GoldenImage(new File(goldenDirectory), harness.outputDirectory, tolerance, maxDifferentPixels, record);
+		harness.tiles = new File(tiles).getAbsolutePath();
+		harness.sketchPath = new File("").getAbsolutePath();
+		harness.runScript();
+	}
+
+	/**
+	 * Constructs the sketch. On a headless JVM Applet throws HeadlessException in its constructor, although nothing
+	 * here needs a display, so headless is turned off just for the constructor
+	 */
+	private static HarnessMap create() {
+		if(!GraphicsEnvironment.isHeadless()) return new HarnessMap();
+
+		// loads the headless AWT libraries before the applet classes are initialized
+		new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics().dispose();
+		try {
+			Field headless = GraphicsEnvironment.class.getDeclaredField("headless");
+			headless.setAccessible(true);
+			headless.set(null, Boolean.FALSE);
+			try {
+				return new HarnessMap();
+			}finally {
+				headless.set(null, Boolean.TRUE);
+			}
+		}catch(ReflectiveOperationException | RuntimeException e) {
+			System.err.println("Could not create the sketch on a headless JVM (is java.awt opened with --add-opens?): " + e);
+			System.exit(2);
+			return null;
+		}
+	}
+
+	@Override
+	protected String renderer() {
+		return JAVA2D;
+	}
+
+	@Override
+	protected AbstractMapProvider mapProvider() {
+		return new MBTilesMapProvider("jdbc:sqlite:" + tiles);
+	}
+
+	/**
+	 * Gives the sketch an offscreen JAVA2D buffer instead of a window
+	 */
+	@Override
+	public void size(int width, int height, String renderer) {
+		PGraphicsJava2D buffer = new PGraphicsJava2D();
+		buffer.setParent(this);
+		buffer.setPrimary(false);
+		buffer.setSize(width, height);
+		g = buffer;
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public void setup() {
+		super.setup();
+		// every frame must show the final state of the step
+		getMap().setTweening(false);
+	}
+
+	/**
+	 * Runs the frames until the script is done, as the animation thread of a sketch would
+	 */
+	private void runScript() {
+		setup();
+		while(frameCount < MAX_FRAMES) {
+			g.beginDraw();
+			handleMethods("pre");
+			draw();
+			handleMethods("draw");
+			g.endDraw();
+			dequeueEvents();
+			handleMethods("post");
+			frameCount++;
+		}
+		System.err.println("The script didn't finish in " + MAX_FRAMES + " frames, stopped at step " + steps.get(step).name);
+		System.exit(1);
+	}
+
+	@Override
+	public void draw() {
+		long start = System.nanoTime();
+		super.draw();
+		timings.add(System.nanoTime() - start);
+
+		if(step == steps.size()) return;
+		Script.Step current = steps.get(step);
+		if(batch < current.batches.size()) {
+			// handled before the next frame
+			for(Event event : current.batches.get(batch)) postEvent(event);
+			batch++;
+		}else if((!getMap().allTilesLoaded() || !isGeometryProjected()) && settleFrames < MAX_SETTLE_FRAMES) {
+			settleFrames++;
+		}else if(measuredFrames < MEASURED_FRAMES) {
+			measuredFrames++;
+		}else {
+			finishStep(current);
+		}
+	}
+
+	private void finishStep(Script.Step current) {
+		Collections.sort(timings);
+		float mean = 0;
+		for(long timing : timings) mean += timing;
+		mean = mean / timings.size() / 1e6f;
+		float p95 = timings.get(Math.min(timings.size() - 1, (int)(timings.size() * 0.95f))) / 1e6f;
+		float max = timings.get(timings.size() - 1) / 1e6f;
+		boolean overBudget = p95 > current.budgetMillis;
+
+		// the offscreen buffer, as drawn by the last frame
+		GoldenImage.Result result = golden.check(this, current.name, g.get());
+		if(overBudget || result == GoldenImage.Result.MISMATCH || result == GoldenImage.Result.MISSING) failures++;
+
+		System.out.println(String.format("%-16s %4d frames  mean %7.2f ms  p95 %7.2f ms  max %7.2f ms  budget %6.1f ms %-4s  golden %s (%.3f%%)",
+				current.name, timings.size(), mean, p95, max, current.budgetMillis, overBudget ? "OVER" : "ok",
+				result, golden.getLastDifference() * 100));
+		report.add(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.1f,%s,%s,%.5f", current.name, timings.size(), mean, p95, max,
+				current.budgetMillis, overBudget ? "over" : "ok", result, golden.getLastDifference()));
+
+		step++;
+		batch = 0;
+		settleFrames = 0;
+		measuredFrames = 0;
+		timings.clear();
+		if(step == steps.size()) finish();
+	}
+
+	private void finish() {
+		outputDirectory.mkdirs();
+		File file = new File(outputDirectory, "report.csv");
+		PrintWriter writer = createWriter(file.getAbsolutePath());
+		writer.println("step,frames,mean_ms,p95_ms,max_ms,budget_ms,time,golden,different_pixels");
+		for(String line : report) writer.println(line);
+		writer.close();
+
+		System.out.println(failures == 0 ? "All steps passed" : failures + " step(s) failed, see " + file);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,109 @@
+package harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.event.Event;
+import processing.event.KeyEvent;
+import processing.event.MouseEvent;
+
+/**
+ * Interactions replayed by the regression harness. A script is a text file with one step per line:
+ *
+ *   name  budget  action  arguments
+ *
+ * where budget is the maximum 95th percentile frame time of the step in milliseconds and action is one of
+ *   wait                  nothing, just render
+ *   click x y             press, release and click the left button
+ *   move x y              move the mouse
+ *   drag x1 y1 x2 y2      press at x1 y1, drag to x2 y2 and release (pans the map)
+ *   wheel x y count       turn the mouse wheel (zooms the map)
+ *   key c                 press and release a key
+ *
+ * Empty lines and lines starting with # are ignored. The name of the step is also the name of its golden frame.
+ *
+ * @see HarnessMap
+ *
+ */
+public class Script {
+
+	/**
+	 * A step of the script: the events to post, one batch per frame
+	 */
+	public static class Step {
+		final String name;
+		final float budgetMillis;
+		final List<Event[]> batches = new ArrayList<Event[]>();
+
+		Step(String name, float budgetMillis) {
+			this.name = name;
+			this.budgetMillis = budgetMillis;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public float getBudgetMillis() {
+			return budgetMillis;
+		}
+	}
+
+	public static List<Step> load(File file) throws IOException {
+		List<Step> steps = new ArrayList<Step>();
+		int lineNumber = 0;
+		for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			lineNumber++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			try {
+				steps.add(parse(line.split("\\s+")));
+			}catch(RuntimeException e) {
+				throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return steps;
+	}
+
+	private static Step parse(String[] columns) {
+		if(columns.length < 3) throw new IllegalArgumentException("expected: name budget action arguments");
+		Step step = new Step(columns[0], Float.parseFloat(columns[1]));
+		String action = columns[2];
+		if(action.equals("wait")) {
+			// no events
+		}else if(action.equals("click")) {
+			int x = Integer.parseInt(columns[3]), y = Integer.parseInt(columns[4]);
+			step.batches.add(new Event[] {mouse(MouseEvent.PRESS, x, y, 1), mouse(MouseEvent.RELEASE, x, y, 1),
+					mouse(MouseEvent.CLICK, x, y, 1)});
+		}else if(action.equals("move")) {
+			step.batches.add(new Event[] {mouse(MouseEvent.MOVE, Integer.parseInt(columns[3]), Integer.parseInt(columns[4]), 0)});
+		}else if(action.equals("drag")) {
+			// one event per frame: Unfolding pans by the distance from the position of the previous frame
+			int x1 = Integer.parseInt(columns[3]), y1 = Integer.parseInt(columns[4]);
+			int x2 = Integer.parseInt(columns[5]), y2 = Integer.parseInt(columns[6]);
+			step.batches.add(new Event[] {mouse(MouseEvent.MOVE, x1, y1, 0)});
+			step.batches.add(new Event[] {mouse(MouseEvent.PRESS, x1, y1, 1)});
+			step.batches.add(new Event[] {mouse(MouseEvent.DRAG, x2, y2, 0)});
+			step.batches.add(new Event[] {mouse(MouseEvent.RELEASE, x2, y2, 1)});
+		}else if(action.equals("wheel")) {
+			step.batches.add(new Event[] {mouse(MouseEvent.WHEEL, Integer.parseInt(columns[3]), Integer.parseInt(columns[4]),
+					Integer.parseInt(columns[5]))});
+		}else if(action.equals("key")) {
+			char key = columns[3].charAt(0);
+			step.batches.add(new Event[] {new KeyEvent(null, System.currentTimeMillis(), KeyEvent.PRESS, 0, key, Character.toUpperCase(key)),
+					new KeyEvent(null, System.currentTimeMillis(), KeyEvent.RELEASE, 0, key, Character.toUpperCase(key))});
+		}else {
+			throw new IllegalArgumentException("unknown action " + action);
+		}
+		return step;
+	}
+
+	private static MouseEvent mouse(int action, int x, int y, int count) {
+		return new MouseEvent(null, System.currentTimeMillis(), action, 0, x, y, PConstants.LEFT, count);
+	}
+}
@@ -0,0 +1,338 @@
+package map;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.mapdisplay.AbstractMapDisplay;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * Marker layer for big point datasets (every airport, a month of earthquakes...). Instead of one CommonMarker object
+ * drawn with its own immediate mode calls, markers are rows in primitive arrays and are drawn as a single retained
+ * PShape of POINTS on OPENGL renderers. Panning just draws the shape with a different translation. While the zoom
+ * changes (Unfolding tweens it over several frames) the shape is drawn scaled, and it is rebuilt for the new scale once
+ * the zoom has settled or is more than twice as far from the scale of the shape. Showing or hiding markers rebuilds it.
+ *
+ * Changing a vertex of a retained shape makes Processing tessellate the whole shape again, so color and radius changes
+ * aren't written into it: the changed markers are drawn on top of the batch until the next rebuild (or until there
+ * are too many of them). Non OpenGL renderers fall back to drawing the points straight from the arrays.
+ *
+ * Each marker keeps its own color, radius, hidden and clicked state, like CommonMarker does. Clicked markers are drawn
+ * on top of the batch with a white outline.
+ *
+ * The layer holds no Marker objects, so it isn't a MarkerManager: markers are only reached by index through the
+ * methods below. addTo draws it with the markers of a map.
+ *
+ * @see CommonMarker
+ *
+ */
+public class BatchedMarkerLayer {
+
+	private UnfoldingMap map;
+	private boolean visible = true;
+
+	private int size = 0;
+
+	// Marker data, indexed by marker index
+	private float[] lats = new float[256];
+	private float[] lons = new float[256];
+	private int[] colors = new int[256];
+	private float[] radii = new float[256];
+	private boolean[] hidden = new boolean[256];
+	private boolean[] clicked = new boolean[256];
+	// Indexes of the clicked markers, so drawing them doesn't scan every marker
+	private int[] clickedMarkers = new int[16];
+	private int clickedCount = 0;
+
+	// Zoom independent position of the markers (map pixels at zoom 0), computed the first time they are drawn
+	private float[] innerX = new float[256];
+	private float[] innerY = new float[256];
+	private int projectedCount = 0;
+
+	// Retained shape with one vertex per visible marker, in map pixels for batchScale
+	private PShape batch;
+	private float batchScale = -1;
+	private int[] vertexOf = new int[256];  // vertex of each marker in batch, -1 if not in it
+	private boolean rebuild = true;
+	// Scale of the previous frame, the zoom has settled when it doesn't change
+	private float lastScale = -1;
+
+	// Markers whose color or radius changed after the batch was built, drawn on top of it
+	private static final int MAX_OVERRIDES = 1024;
+	private float[] batchRadii = new float[256];  // radius of each marker in batch
+	private boolean[] overridden = new boolean[256];
+	private int[] overrides = new int[64];
+	private int overrideCount = 0;
+
+	/**
+	 * Creates a layer with a marker for each feature
+	 */
+	public static BatchedMarkerLayer fromFeatures(List<PointFeature> features, int color, float radius) {
+		BatchedMarkerLayer layer = new BatchedMarkerLayer();
+		for(PointFeature feature : features) {
+			layer.addMarker(feature.getLocation(), color, radius);
+		}
+		return layer;
+	}
+
+	/**
+	 * Adds the layer to the map, drawn after the marker managers already added to it. Add it after the regular markers
+	 * (Unfolding drops an empty default marker manager when a new manager is added to the map).
+	 */
+	public void addTo(UnfoldingMap map) {
+		this.map = map;
+		// only hooks the layer into the marker drawing of the map
+		map.addMarkerManager(new MarkerManager<Marker>() {
+			@Override
+			public void draw() {
+				BatchedMarkerLayer.this.draw();
+			}
+		});
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	/**
+	 * @return index of the new marker
+	 */
+	public int addMarker(Location location, int color, float radius) {
+		if(size == lats.length) grow(size * 2);
+		lats[size] = location.getLat();
+		lons[size] = location.getLon();
+		colors[size] = color;
+		radii[size] = radius;
+		hidden[size] = false;
+		clicked[size] = false;
+		vertexOf[size] = -1;
+		overridden[size] = false;
+		rebuild = true;
+		return size++;
+	}
+
+	private void grow(int capacity) {
+		lats = Arrays.copyOf(lats, capacity);
+		lons = Arrays.copyOf(lons, capacity);
+		colors = Arrays.copyOf(colors, capacity);
+		radii = Arrays.copyOf(radii, capacity);
+		hidden = Arrays.copyOf(hidden, capacity);
+		clicked = Arrays.copyOf(clicked, capacity);
+		innerX = Arrays.copyOf(innerX, capacity);
+		innerY = Arrays.copyOf(innerY, capacity);
+		vertexOf = Arrays.copyOf(vertexOf, capacity);
+		batchRadii = Arrays.copyOf(batchRadii, capacity);
+		overridden = Arrays.copyOf(overridden, capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes every marker
+	 */
+	public void clear() {
+		size = 0;
+		clickedCount = 0;
+		projectedCount = 0;
+		overrideCount = 0;
+		rebuild = true;
+	}
+
+	public Location getLocation(int marker) {
+		return new Location(lats[marker], lons[marker]);
+	}
+
+	public int getColor(int marker) {
+		return colors[marker];
+	}
+
+	public void setColor(int marker, int color) {
+		colors[marker] = color;
+		override(marker);
+	}
+
+	public float getRadius(int marker) {
+		return radii[marker];
+	}
+
+	public void setRadius(int marker, float radius) {
+		radii[marker] = radius;
+		// a smaller point on top can't cover the old one
+		if(batch != null && vertexOf[marker] != -1 && radius < batchRadii[marker]) rebuild = true;
+		else override(marker);
+	}
+
+	/**
+	 * Draws the marker on top of the batch until the next rebuild
+	 */
+	private void override(int marker) {
+		if(batch == null || vertexOf[marker] == -1 || overridden[marker]) return;
+		if(overrideCount == overrides.length) overrides = Arrays.copyOf(overrides, overrideCount * 2);
+		overridden[marker] = true;
+		overrides[overrideCount++] = marker;
+	}
+
+	public boolean isHidden(int marker) {
+		return hidden[marker];
+	}
+
+	public void setHidden(int marker, boolean state) {
+		if(hidden[marker] != state) rebuild = true;
+		hidden[marker] = state;
+	}
+
+	public boolean getClicked(int marker) {
+		return clicked[marker];
+	}
+
+	public void setClicked(int marker, boolean state) {
+		if(clicked[marker] == state) return;
+		clicked[marker] = state;
+		if(state) {
+			if(clickedCount == clickedMarkers.length) clickedMarkers = Arrays.copyOf(clickedMarkers, clickedCount * 2);
+			clickedMarkers[clickedCount++] = marker;
+		}else {
+			for(int k = 0; k < clickedCount; k++) {
+				if(clickedMarkers[k] != marker) continue;
+				clickedMarkers[k] = clickedMarkers[--clickedCount];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param screenX
+	 * @param screenY
+	 * @return index of the top most visible marker under the given screen position, or -1 if there is none
+	 */
+	public int getFirstHitIndex(float screenX, float screenY) {
+		if(map == null) return -1;
+		AbstractMapDisplay display = map.mapDisplay;
+		project(display);
+
+		float[] object = display.getObjectFromScreenPosition(screenX, screenY);
+		float[] inner = display.getInnerObjectFromObjectPosition(object[0], object[1]);
+		float scale = getScale(display);
+
+		// last drawn markers are on top
+		for(int i = size - 1; i >= 0; i--) {
+			if(hidden[i]) continue;
+			float dx = (inner[0] - innerX[i]) * scale;
+			float dy = (inner[1] - innerY[i]) * scale;
+			if(dx * dx + dy * dy <= radii[i] * radii[i]) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Draws the markers on the map. Called by the map, see addTo
+	 */
+	public void draw() {
+		if(!visible || map == null || size == 0) return;
+
+		AbstractMapDisplay display = map.mapDisplay;
+		PGraphics pg = display.getOuterPG();
+		project(display);
+
+		// inner object -> object transformation is a scale plus a translation (the map isn't rotated)
+		float[] origin = display.getObjectFromInnerObjectPosition(0, 0);
+		float scale = getScale(display);
+
+		pg.pushStyle();
+		if(pg.isGL()) {
+			boolean settled = scale == lastScale;
+			float ratio = scale / batchScale;
+			if(rebuild || batch == null || overrideCount > MAX_OVERRIDES
+					|| (scale != batchScale && (settled || ratio < 0.5f || ratio > 2))) {
+				buildBatch(pg, scale);
+				ratio = 1;
+			}
+			pg.pushMatrix();
+			pg.translate(origin[0], origin[1]);
+			// while zooming, the batch of the previous scale
+			if(ratio != 1) pg.scale(ratio);
+			pg.shape(batch);
+			pg.popMatrix();
+
+			for(int o = 0; o < overrideCount; o++) {
+				int i = overrides[o];
+				pg.stroke(colors[i]);
+				pg.strokeWeight(radii[i] * 2);
+				pg.point(origin[0] + innerX[i] * scale, origin[1] + innerY[i] * scale);
+			}
+		}else {
+			for(int i = 0; i < size; i++) {
+				if(hidden[i]) continue;
+				pg.stroke(colors[i]);
+				pg.strokeWeight(radii[i] * 2);
+				pg.point(origin[0] + innerX[i] * scale, origin[1] + innerY[i] * scale);
+			}
+		}
+
+		// clicked markers are highlighted on top of the batch
+		pg.noFill();
+		pg.stroke(255);
+		pg.strokeWeight(2);
+		for(int k = 0; k < clickedCount; k++) {
+			int i = clickedMarkers[k];
+			if(hidden[i]) continue;
+			float d = radii[i] * 2 + 4;
+			pg.ellipse(origin[0] + innerX[i] * scale, origin[1] + innerY[i] * scale, d, d);
+		}
+		pg.popStyle();
+		lastScale = scale;
+	}
+
+	private void buildBatch(PGraphics pg, float scale) {
+		batch = pg.createShape();
+		batch.beginShape(PConstants.POINTS);
+		int vertex = 0;
+		for(int i = 0; i < size; i++) {
+			if(hidden[i]) {
+				vertexOf[i] = -1;
+				continue;
+			}
+			batch.stroke(colors[i]);
+			batch.strokeWeight(radii[i] * 2);
+			batch.vertex(innerX[i] * scale, innerY[i] * scale);
+			batchRadii[i] = radii[i];
+			vertexOf[i] = vertex++;
+		}
+		batch.endShape();
+
+		for(int o = 0; o < overrideCount; o++) overridden[overrides[o]] = false;
+		overrideCount = 0;
+		batchScale = scale;
+		rebuild = false;
+	}
+
+	/**
+	 * Computes the zoom independent position of the markers added since the last call
+	 */
+	private void project(AbstractMapDisplay display) {
+		for(; projectedCount < size; projectedCount++) {
+			float[] inner = display.getInnerObjectFromLocation(new Location(lats[projectedCount], lons[projectedCount]));
+			innerX[projectedCount] = inner[0];
+			innerY[projectedCount] = inner[1];
+		}
+	}
+
+	private static float getScale(AbstractMapDisplay display) {
+		float[] origin = display.getObjectFromInnerObjectPosition(0, 0);
+		float[] unit = display.getObjectFromInnerObjectPosition(1, 0);
+		return unit[0] - origin[0];
+	}
+}
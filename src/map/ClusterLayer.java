@@ -0,0 +1,122 @@
+package map;
+
+import cluster.ClusterIndex;
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Marker layer drawing the clusters of a ClusterIndex for the current zoom and viewport of the map. Only the items
+ * returned by the viewport query are drawn and hit-tested, so the cost doesn't depend on the size of the dataset.
+ *
+ * Clusters are drawn as circles growing with the number of points they contain, with the count written inside.
+ * Single points are drawn as small circles.
+ *
+ * Like BatchedMarkerLayer, it holds no Marker objects and isn't a MarkerManager; addTo draws it with the markers of a
+ * map. A sketch with a point dataset switches between clusters and plain markers with setVisible, e.g.
+ *
+ *   clusters = new ClusterLayer(new ClusterIndex(...));
+ *   clusters.addTo(map);
+ *   clusters.setVisible(false);   // in keyPressed: toggle it and hide/show the regular markers
+ *
+ * @see ClusterIndex
+ *
+ */
+public class ClusterLayer {
+
+	private UnfoldingMap map;
+	private boolean visible = true;
+
+	private ClusterIndex index;
+	private ClusterIndex.Result items;
+
+	private int clusterColor = 0xC8FF7800;
+	private int pointColor = 0xC8FFC800;
+
+	public ClusterLayer(ClusterIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Adds the layer to the map, drawn after the marker managers already added to it
+	 */
+	public void addTo(UnfoldingMap map) {
+		this.map = map;
+		// only hooks the layer into the marker drawing of the map
+		map.addMarkerManager(new MarkerManager<Marker>() {
+			@Override
+			public void draw() {
+				ClusterLayer.this.draw();
+			}
+		});
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	public void setColors(int clusterColor, int pointColor) {
+		this.clusterColor = clusterColor;
+		this.pointColor = pointColor;
+	}
+
+	/**
+	 * @return the items drawn in the last frame
+	 */
+	public ClusterIndex.Result getItems() {
+		return items;
+	}
+
+	/**
+	 * @return position in getItems() of the item under the given screen position, or -1 if there is none
+	 */
+	public int getFirstHitItem(float screenX, float screenY) {
+		if(!visible || items == null) return -1;
+		for(int k = items.size() - 1; k >= 0; k--) {
+			ScreenPosition position = map.getScreenPosition(items.getLocation(k));
+			float r = getRadius(items.getCount(k));
+			float dx = screenX - position.x;
+			float dy = screenY - position.y;
+			if(dx * dx + dy * dy <= r * r) return k;
+		}
+		return -1;
+	}
+
+	/**
+	 * Draws the clusters on the map. Called by the map, see addTo
+	 */
+	public void draw() {
+		if(!visible || map == null) return;
+
+		items = index.query(map);
+		PGraphics pg = map.mapDisplay.getOuterPG();
+		pg.pushStyle();
+		pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+		for(int k = 0; k < items.size(); k++) {
+			float[] xy = map.mapDisplay.getObjectFromLocation(items.getLocation(k));
+			int count = items.getCount(k);
+			float d = getRadius(count) * 2;
+
+			pg.stroke(0);
+			pg.strokeWeight(1);
+			pg.fill(items.isCluster(k) ? clusterColor : pointColor);
+			pg.ellipse(xy[0], xy[1], d, d);
+			if(items.isCluster(k)) {
+				pg.fill(0);
+				pg.text(count, xy[0], xy[1]);
+			}
+		}
+		pg.popStyle();
+	}
+
+	private static float getRadius(int count) {
+		return count == 1 ? 5 : 10 + 3 * (float)Math.log(count);
+	}
+}
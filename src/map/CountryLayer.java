@@ -0,0 +1,106 @@
+package map;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PGraphics;
+
+/**
+ * Marker manager for the country polygons. The markers are kept (for hit testing and for their ids and properties),
+ * but they are drawn from a ProjectedGeometryCache instead of being reprojected every frame, with fill colors set
+ * in this layer. On OPENGL renderers the polygons are drawn from the retained shapes of the cache.
+ *
+ * @see ProjectedGeometryCache
+ *
+ */
+public class CountryLayer extends MarkerManager<Marker> {
+
+	// Same default colors as Unfolding markers
+	public static final int DEFAULT_COLOR = 0xFF636363;
+	public static final int DEFAULT_STROKE_COLOR = 0xFF525252;
+
+	public static final int HIGHLIGHT_COLOR = 0xFFFFFFFF;
+
+	private ProjectedGeometryCache geometry;
+	private int[] colors;
+	// Marker outlined on top of the others, -1 for none
+	private int highlighted = -1;
+
+	public CountryLayer(List<Marker> countryMarkers, ProjectedGeometryCache geometry) {
+		super(countryMarkers);
+		this.geometry = geometry;
+		colors = new int[countryMarkers.size()];
+		Arrays.fill(colors, DEFAULT_COLOR);
+	}
+
+	public ProjectedGeometryCache getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * @param marker index of the marker in the list of country markers
+	 * @param color
+	 */
+	public void setColor(int marker, int color) {
+		colors[marker] = color;
+		markers.get(marker).setColor(color);
+	}
+
+	public int[] getColors() {
+		return colors;
+	}
+
+	/**
+	 * @param marker index of the marker to outline, -1 for none
+	 */
+	public void setHighlighted(int marker) {
+		highlighted = marker;
+	}
+
+	/**
+	 * Finds the country at a screen position, testing the given marker first (the cursor usually stays in the
+	 * same country from one test to the next)
+	 *
+	 * @param hint index of the marker to test first, -1 for none
+	 * @return index of the marker at the position, or -1 if there is none
+	 */
+	public int getHitIndex(float checkX, float checkY, int hint) {
+		if(map == null || !map.isHit(checkX, checkY)) return -1;
+		float[] xy = map.mapDisplay.getInnerObject(new ScreenPosition(checkX, checkY));
+		if(hint != -1 && geometry.contains(hint, xy[0], xy[1])) return hint;
+		return geometry.getMarkerAt(xy[0], xy[1]);
+	}
+
+	/**
+	 * Hit test on the cached geometry instead of reprojecting every marker
+	 */
+	@Override
+	public Marker getFirstHitMarker(float checkX, float checkY) {
+		int marker = getHitIndex(checkX, checkY, -1);
+		return marker == -1 ? null : markers.get(marker);
+	}
+
+	@Override
+	public void draw() {
+		if(!bEnableDrawing || map == null) return;
+
+		PGraphics pg = map.mapDisplay.getOuterPG();
+		float[] transformation = ProjectedGeometryCache.getTransformation(map.mapDisplay);
+
+		pg.pushStyle();
+		pg.stroke(DEFAULT_STROKE_COLOR);
+		pg.strokeWeight(1);
+		if(pg.isGL()) geometry.drawRetained(pg, transformation[0], transformation[1], transformation[2], colors);
+		else geometry.draw(pg, transformation[0], transformation[1], transformation[2], colors, null);
+		if(highlighted != -1) {
+			pg.noFill();
+			pg.stroke(HIGHLIGHT_COLOR);
+			pg.strokeWeight(2);
+			geometry.drawMarker(pg, transformation[0], transformation[1], transformation[2], highlighted);
+		}
+		pg.popStyle();
+	}
+}
@@ -2,53 +2,68 @@ package map;
 
 import de.fhpotsdam.unfolding.geo.Location;
 import processing.core.PGraphics;
+import store.FeatureStore;
 
+/**
+ * Shows the indicators of a country. The marker holds no values of its own: it points to a row of the indicator store
+ * of a DataSnapshot (the row of the country marker) and reads the values when it is drawn, so the map keeps a single
+ * DataMarker and moves it to the selected country.
+ *
+ * @see DataSnapshot#indicators
+ *
+ */
 public class DataMarker extends CommonMarker{
-	
-	String countryId, countryName;
-	float density, healthPerCapita, publicHealth, deaths, totalCases;
-	
-	public DataMarker(Location location, String countryId, String countryName, float density, float healthPerCapita, float publicHealth, float deaths, float totalCases) {
-		super(location);
-		this.countryId = countryId;
-		this.countryName = countryName;
-		this.density = density;
-		this.healthPerCapita = healthPerCapita;
-		this.publicHealth = publicHealth;
-		this.deaths = deaths;
-		this.totalCases = totalCases;
-		
-		setHidden(true);
-	}
-	
+
+	private FeatureStore indicators;
+	private int country = -1;
+
+	public DataMarker() {
+		super(new Location(0, 0));
+	}
+
+	/**
+	 * Points the marker to a country
+	 * @param indicators indicator store of a DataSnapshot
+	 * @param country index of the country marker
+	 */
+	public void select(FeatureStore indicators, int country) {
+		this.indicators = indicators;
+		this.country = country;
+		setLocation(indicators.getLat(country), indicators.getLon(country));
+	}
+
+	public int getCountry() {
+		return country;
+	}
+
 	public float getDeaths() {
-		return deaths;
+		return indicators.getFloat(country, DataSnapshot.DEATHS);
 	}
-	
+
 	@Override
 	public void drawMarker(PGraphics pg, float x, float y) {
 
 	}
-	
+
 	@Override
 	public void showTitle(PGraphics pg, float x, float y) {
 		pg.fill(255,255,255);
 		pg.rect(x, y, 250, 120);
-		
+
 		pg.fill(0,0,0);
 		pg.text(printData(), x + 20, y + 20);
 	}
-	
+
 	private String printData() {
-		return countryName + 
-				"\n\nPopulation density: " + density + 
-				"\nHealth per capita: " + healthPerCapita +
-				"\nPublic health: " + publicHealth +
-				"\nCovid total cases: " + totalCases +
-				"\nCovid total deaths: " + deaths;
-	}
-	
+		return indicators.getString(country, DataSnapshot.NAME) +
+				"\n\nPopulation density: " + indicators.getFloat(country, DataSnapshot.DENSITY) +
+				"\nHealth per capita: " + indicators.getFloat(country, DataSnapshot.HEALTH_PER_CAPITA) +
+				"\nPublic health: " + indicators.getFloat(country, DataSnapshot.PUBLIC_HEALTH) +
+				"\nCovid total cases: " + indicators.getFloat(country, DataSnapshot.CASES) +
+				"\nCovid total deaths: " + indicators.getFloat(country, DataSnapshot.DEATHS);
+	}
+
 	public String getCountryId() {
-		return countryId;
+		return indicators.getString(country, DataSnapshot.ID);
 	}
 }
@@ -0,0 +1,162 @@
+package map;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import processing.core.PApplet;
+
+/**
+ * Watches the directories of the data files and, when one of them changes, builds a new DataSnapshot in a background
+ * thread. The new snapshot is published with a single atomic reference swap; the render thread picks it up with
+ * poll() at the start of the next frame, so it never waits for file I/O or parsing.
+ *
+ * If a changed file can't be parsed (for example because it is still being written) the error is printed and the
+ * current snapshot is kept until the next change.
+ *
+ * @see DataSnapshot
+ *
+ */
+public class DataReloader implements Runnable {
+
+	// Editors usually write a file in several steps, wait for them to finish before parsing
+	private static final long SETTLE_MILLIS = 300;
+	// The data files may also be given compressed, as data.csv.gz for example
+	private static final String[] COMPRESSED_EXTENSIONS = {"", ".gz", ".zst"};
+
+	private final PApplet p;
+	private final UnfoldingMap map;
+	private final List<File> directories;
+	private final String[] fileNames = {DataSnapshot.DATA_FILE, DataSnapshot.COVID_FILE, DataSnapshot.COUNTRIES_FILE};
+
+	// Snapshot built and not picked up yet by the render thread
+	private final AtomicReference<DataSnapshot> published = new AtomicReference<DataSnapshot>();
+
+	private WatchService watcher;
+	private Thread thread;
+
+	/**
+	 * @param p PApplet used to load the files
+	 * @param map map the snapshots are built for
+	 * @param directories directories where the data files are, in order of preference (directories that don't exist are ignored)
+	 */
+	public DataReloader(PApplet p, UnfoldingMap map, List<File> directories) {
+		this.p = p;
+		this.map = map;
+		this.directories = directories;
+	}
+
+	/**
+	 * Starts watching the directories
+	 */
+	public void start() {
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			for(File directory : directories) {
+				if(!directory.isDirectory()) continue;
+				directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		}catch(IOException e) {
+			System.err.println("Data files won't be reloaded: " + e.getMessage());
+			return;
+		}
+		thread = new Thread(this, "data-reloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		try {
+			if(watcher != null) watcher.close();
+		}catch(IOException e) {
+			// nothing else to do
+		}
+	}
+
+	/**
+	 * Called from the render thread
+	 * @return the snapshot built since the last call, or null if there is none
+	 */
+	public DataSnapshot poll() {
+		return published.getAndSet(null);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while(true) {
+				WatchKey key = watcher.take();
+				boolean changed = pollEvents(key);
+
+				// let the writes finish, and take every change that comes meanwhile as the same change
+				WatchKey next;
+				while((next = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					changed |= pollEvents(next);
+				}
+				if(changed) reload();
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}catch(ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * @return true if any of the events is about one of the data files
+	 */
+	private boolean pollEvents(WatchKey key) {
+		boolean changed = false;
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(!(event.context() instanceof Path)) continue;
+			String name = ((Path)event.context()).getFileName().toString();
+			for(String fileName : fileNames) {
+				for(String extension : COMPRESSED_EXTENSIONS) {
+					if((fileName + extension).equals(name)) changed = true;
+				}
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Builds a snapshot from the current data files, in the calling thread
+	 */
+	public DataSnapshot load() {
+		return new DataSnapshot(p, map, resolve(DataSnapshot.DATA_FILE),
+				resolve(DataSnapshot.COVID_FILE), resolve(DataSnapshot.COUNTRIES_FILE));
+	}
+
+	private void reload() {
+		try {
+			published.set(load());
+		}catch(RuntimeException e) {
+			System.err.println("Could not reload data files, keeping the current data: " + e);
+		}
+	}
+
+	/**
+	 * @return path of the file (or of a compressed copy of it) in the first watched directory that has it, or the plain
+	 * file name if none has it
+	 */
+	private String resolve(String fileName) {
+		for(File directory : directories) {
+			for(String extension : COMPRESSED_EXTENSIONS) {
+				File file = new File(directory, fileName + extension);
+				if(file.isFile()) return file.getAbsolutePath();
+			}
+		}
+		return fileName;
+	}
+}
@@ -0,0 +1,338 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.MyParseFeed;
+import parsing.ParseFeed;
+import processing.core.PApplet;
+import store.CovidCube;
+import store.FeatureStore;
+
+/**
+ * Everything the map shows that comes from the data files: the datasets, the country markers and their layers, the
+ * indicators of every country and the color of every country for every dataset.
+ *
+ * A snapshot is built in one go (in setup, or in the background by DataReloader when a file changes) and is not
+ * modified afterwards, so the render thread can switch from one snapshot to the next by swapping a single reference.
+ *
+ * @see DataReloader
+ *
+ */
+public class DataSnapshot {
+
+	// Default names of the data files
+	public static final String DATA_FILE = "data.csv";
+	public static final String COVID_FILE = "covid.csv";
+	public static final String COUNTRIES_FILE = "countries.geo.json";
+
+	// Whether higher values are better for each dataset, in the order of getDatasets()
+	static final boolean[] HIGHER_IS_BETTER = {false, true, true, false, false, false};
+
+	final HashMap<String, Float> populationDensityMap, healthPerCapitaMap, publicHealthMap, deathsMap, casesMap;
+	// Covid cases and deaths by WHO region and date, and the total cases of the region of every country
+	final CovidCube covidCube;
+	final HashMap<String, Float> regionCasesMap;
+	final List<Feature> countries;
+	final List<Marker> countryMarkers;
+	final CountryLayer countryLayer;
+
+	// Indicators of every country, one row per country marker (same index), read by DataMarker
+	static final int ID = 0, NAME = 1, DENSITY = 2, HEALTH_PER_CAPITA = 3, PUBLIC_HEALTH = 4, CASES = 5, DEATHS = 6;
+	final FeatureStore indicators;
+
+	// Datasets in the order of the buttons of the map, and the color of each country for each of them
+	private final List<HashMap<String, Float>> datasets;
+	private final int[][] datasetColors;
+
+	/**
+	 * Loads every data file and builds the markers. It doesn't touch the map, so it can run in any thread.
+	 *
+	 * @param p PApplet used to load the files
+	 * @param map map the country markers will be drawn on (only used to project them)
+	 * @param dataFile file name or path of data.csv (may be compressed, see parsing.CompressedInput)
+	 * @param covidFile file name or path of covid.csv (may be compressed)
+	 * @param countriesFile file name or path of countries.geo.json (may be compressed)
+	 */
+	public DataSnapshot(PApplet p, UnfoldingMap map, String dataFile, String covidFile, String countriesFile) {
+		// Load data. Country codes come only from this data file, so the covid data is matched against this snapshot
+		HashMap<String, String> countryCodes = new HashMap<String, String>();
+		List<HashMap<String, Float>> mapsList = MyParseFeed.loadData(p, dataFile, countryCodes);
+		populationDensityMap = mapsList.get(0);
+		healthPerCapitaMap = mapsList.get(1);
+		publicHealthMap = mapsList.get(2);
+
+		CovidCube.Builder cubeBuilder = new CovidCube.Builder();
+		List<HashMap<String, Float>> covidList = MyParseFeed.loadCovidData(p, covidFile, countryCodes, cubeBuilder);
+		deathsMap = covidList.get(0);
+		casesMap = covidList.get(1);
+		covidCube = cubeBuilder.build();
+
+		// every country gets the total of its region, so regions are shaded as a whole
+		regionCasesMap = new HashMap<String, Float>();
+		for(int country = 0; country < covidCube.getCountryCount(); country++) {
+			int region = covidCube.getRegionOf(country);
+			regionCasesMap.put(covidCube.getCountry(country),
+					(float)covidCube.getTotal(CovidCube.Dimension.REGION, region, CovidCube.Measure.CASES));
+		}
+
+		List<HashMap<String, Float>> buttonMaps = new ArrayList<HashMap<String, Float>>();
+		buttonMaps.add(populationDensityMap);
+		buttonMaps.add(healthPerCapitaMap);
+		buttonMaps.add(publicHealthMap);
+		buttonMaps.add(casesMap);
+		buttonMaps.add(deathsMap);
+		buttonMaps.add(regionCasesMap);
+		datasets = Collections.unmodifiableList(buttonMaps);
+
+		// Load country polygons and creates their markers. They are projected once and drawn from the geometry cache
+		countries = ParseFeed.parseGeoJSON(p, countriesFile);
+		countryMarkers = MapUtils.createSimpleMarkers(countries);
+		countryLayer = new CountryLayer(countryMarkers, new ProjectedGeometryCache(map.mapDisplay, countryMarkers));
+
+		indicators = new FeatureStore(new FeatureStore.Schema()
+				.add("id", FeatureStore.ColumnType.TEXT)
+				.add("name", FeatureStore.ColumnType.TEXT)
+				.add("density", FeatureStore.ColumnType.FLOAT)
+				.add("healthPerCapita", FeatureStore.ColumnType.FLOAT)
+				.add("publicHealth", FeatureStore.ColumnType.FLOAT)
+				.add("cases", FeatureStore.ColumnType.FLOAT)
+				.add("deaths", FeatureStore.ColumnType.FLOAT));
+		for(Marker country:countryMarkers) {
+			String countryId = country.getId();
+			int row = indicators.addRow(country.getLocation().getLat(), country.getLocation().getLon());
+			indicators.setString(row, ID, countryId);
+			indicators.setString(row, NAME, (String)country.getProperty("name"));
+			setIndicator(row, DENSITY, populationDensityMap, countryId);
+			setIndicator(row, HEALTH_PER_CAPITA, healthPerCapitaMap, countryId);
+			setIndicator(row, PUBLIC_HEALTH, publicHealthMap, countryId);
+			setIndicator(row, CASES, casesMap, countryId);
+			setIndicator(row, DEATHS, deathsMap, countryId);
+		}
+		indicators.trim();
+
+		// Statistics and colors of every dataset
+		datasetColors = new int[datasets.size()][];
+		for(int i = 0; i < datasets.size(); i++) {
+			HashMap<String, Float> dataMap = datasets.get(i);
+			float[] minMaxValues = findMinMaxValues(dataMap);
+			datasetColors[i] = computeCountryColors(countryMarkers, dataMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], HIGHER_IS_BETTER[i]);
+		}
+	}
+
+	private void setIndicator(int row, int column, HashMap<String, Float> dataMap, String countryId) {
+		Float value = dataMap.get(countryId);
+		if(value != null) indicators.setFloat(row, column, value);
+	}
+
+	/**
+	 * @param country index of the country marker
+	 * @return true if the country has a value for every indicator (only those countries show their data when clicked)
+	 */
+	public boolean hasAllIndicators(int country) {
+		for(int column = DENSITY; column <= DEATHS; column++) {
+			if(Float.isNaN(indicators.getFloat(country, column))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return datasets in the order of the buttons: population density, health per capita, public health, covid cases, covid deaths,
+	 * covid cases of the WHO region
+	 */
+	public List<HashMap<String, Float>> getDatasets() {
+		return datasets;
+	}
+
+	/**
+	 * @param dataset index of the dataset in getDatasets()
+	 * @return color of each country for the dataset, in the order of countryMarkers. Must not be modified
+	 */
+	public int[] getDatasetColors(int dataset) {
+		return datasetColors[dataset];
+	}
+
+	int[][] getAllDatasetColors() {
+		return datasetColors;
+	}
+
+	/**
+	 * Same as PApplet.color(r, g, b) in the default color mode, without using the PApplet (which isn't thread safe)
+	 */
+	private static int rgb(float r, float g, float b) {
+		return 0xFF000000 | (channel(r) << 16) | (channel(g) << 8) | channel(b);
+	}
+
+	private static int channel(float value) {
+		if(value > 255) value = 255;
+		if(value < 0) value = 0;
+		return (int)value;
+	}
+
+	/**
+	 * This method computes the color of each country depending on the selected dataset. Since I found many outliers in the data (extreme values that distorted the results),
+	 * I decided to eliminate the values that are above or below the mean by two times the standard deviation, and apply this filter twice. Again, as stated before,
+	 * not that this is the best method to remove outliers, but since this isn't about data cleaning, I simply tuned it until I got some useful and decent results.
+	 * 
+	 * I also decided to split the data representation into two categories: countries that are above the mean and those that are below it. Countries below the mean
+	 * will range from red to yellow, whereas countries above the mean will range from yellow to blue. So, instead of ranging from red to blue, countries range from
+	 * red to yellow and to blue (wider range, finer representation).
+	 * 
+	 * @param countryMarkers
+	 * @param dataMap
+	 * @param minValue Calculated in method findMinMaxValues
+	 * @param maxValue Calculated in method findMinMaxValues
+	 * @param higherIsBetter true if higher values in the dataset are a good thing (for example, higher values in total covid deaths isn't a good thing, so
+	 * it should be set to false, whereas health expenses per capita should be set to true)
+	 * @return color of each country, in the order of countryMarkers
+	 */
+	static int[] computeCountryColors(List<Marker> countryMarkers, HashMap<String, Float> dataMap, float minValue, float maxValue, float mean, boolean higherIsBetter) {
+		int[] colors = new int[countryMarkers.size()];
+		for (int i = 0; i < countryMarkers.size(); i++) {
+			// Find data for country of the current marker
+			String countryId = countryMarkers.get(i).getId();
+			if (dataMap.containsKey(countryId)) {
+				//System.out.println(minValue + ", " + maxValue);
+				//System.out.println(marker.getProperty("name"));
+				//System.out.println("Media: " + median);
+				if(higherIsBetter) {
+					float colorLevel;
+					if(dataMap.get(countryId) >= mean) {
+						colorLevel = (dataMap.get(countryId) - mean) / (maxValue - mean);
+						//System.out.println("Above media: " + colorLevel);
+						//System.out.println("Country value: " + dataMap.get(countryId));
+						colors[i] = rgb(255 * (1 - colorLevel), 255 * (1 - colorLevel), 255 * colorLevel);
+					}else {
+						colorLevel = (mean - dataMap.get(countryId))/(mean - minValue);
+						//System.out.println("Below media: " + colorLevel);
+						//System.out.println("Country value: " + dataMap.get(countryId));
+						colors[i] = rgb(255, 255 * (1 - colorLevel), 0);
+					}
+				}else {
+					float colorLevel;
+					if(dataMap.get(countryId) <= mean) {
+						colorLevel = (mean - dataMap.get(countryId)) / (mean - minValue);
+						//System.out.println("Below media: " + colorLevel);
+						//System.out.println("Country value: " + dataMap.get(countryId));
+						colors[i] = rgb(255 * (1 - colorLevel), 255 * (1 - colorLevel), 255 * colorLevel);
+					}else {
+						colorLevel = ((dataMap.get(countryId) - mean)) / (maxValue - mean);
+						if(colorLevel > 1) colorLevel = 1;
+						//System.out.println("Above media: " + colorLevel);
+						//System.out.println("Country value: " + dataMap.get(countryId));
+						colors[i] = rgb(255, 255 * (1 - colorLevel), 0);
+					}
+				}
+				//System.out.println();
+			}
+			else {
+				colors[i] = rgb(0,0,0);
+			}
+		}
+		return colors;
+	}
+	
+	/**
+	 * Removes some outliers and returns the mean, max and min values (once outliers have been removed). I needed to do this
+	 * because there were so many extreme values that every country ended up being either completely blue, or completely red, with only two
+	 * or three different shades in the whole map.
+	 * This is only logical since wealth distribution is very different in the first, second and third world. Another possible solution would
+	 * have been to colorize data differently for each world, but I chose to go with this. Feel free to test new ways.
+	 * 
+	 * @param map
+	 * @return
+	 */
+	static float[] findMinMaxValues(HashMap<String, Float> map) {
+		float minMaxValues[] = new float[3];
+		
+		// Create a copy of the map to work on because we will remove some keys
+		HashMap<String, Float> copyMap = new HashMap<String, Float>();
+		for(String key:map.keySet()) copyMap.put(key, map.get(key));
+		
+		float mean = 0;
+		float std = 0;
+		ArrayList<String> keysRemove = new ArrayList<String>();
+		
+		// go through the dataset a number of times to remove outliers
+		// two or three iterations should be enough
+		do{
+			mean = calculateMean(copyMap);
+			std = calculateStandardDeviation(copyMap, mean);
+			//System.out.println("mean: " + mean);
+			//System.out.println("std: " + std);
+			//System.out.println("diff: " + Math.abs(mean - std));
+			for(String key:copyMap.keySet()) {
+				if(Math.abs(copyMap.get(key) - mean) > 2 * std) keysRemove.add(key);
+			}
+			for(String key:keysRemove) {
+				//System.out.println("Removing a key: " + key);
+				copyMap.remove(key);
+			}
+			//System.out.println();
+		}while(2 * mean < std);
+		
+		//System.out.println("final mean: " + mean);
+		//System.out.println("final std: " + std);
+		float minValue = Float.MAX_VALUE;
+		float maxValue = 0;
+		
+		for(String key:map.keySet()) {
+			if(Math.abs(map.get(key) - mean) > std || map.get(key) == 0) {
+				continue;
+			}
+			if(map.get(key) < minValue) minValue = map.get(key);
+			if(map.get(key) > maxValue) maxValue = map.get(key);
+		}
+		
+		minMaxValues[0] = minValue;
+		minMaxValues[1] = maxValue;
+		minMaxValues[2] = mean;
+		
+		return minMaxValues;
+	}
+	
+	private static float calculateStandardDeviation(HashMap<String, Float> map, float mean) {
+		
+		float variance = calculateVariance(map, mean);
+		
+		return (float)Math.sqrt(variance);
+	}
+	
+	private static float calculateMean(HashMap<String, Float> map) {
+		float mean = 0;
+		int count = 0;
+		
+		for(String key:map.keySet()) {
+			if(map.get(key) == 0) {
+				continue;
+			}
+			mean += map.get(key);
+			count++;
+		}
+		mean = mean / count;
+		return mean;
+	}
+	
+	private static float calculateVariance(HashMap<String, Float> map, float mean) {
+		float variance = 0;
+		int count = 0;
+		
+		for(String key:map.keySet()) {
+			if(map.get(key) == 0) {
+				continue;
+			}
+			variance += Math.pow(map.get(key) - mean, 2);
+			count++;
+		}
+		
+		variance = variance / count;
+		
+		return variance;
+	}
+}
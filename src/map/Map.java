@@ -1,16 +1,16 @@
 package map;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
-import de.fhpotsdam.unfolding.data.Feature;
-import de.fhpotsdam.unfolding.data.GeoJSONReader;
 import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
 import de.fhpotsdam.unfolding.providers.Google;
 import de.fhpotsdam.unfolding.utils.MapUtils;
-import parsing.MyParseFeed;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
 import processing.core.PApplet;
 
 /**
@@ -18,29 +18,32 @@ import processing.core.PApplet;
  * the class MyParseFeed.java
  * 
  * The user can click on the different buttons to change from one dataset representation to any other at any moment.
+ * The last button shows every dataset at once, in small panels that follow the pan and zoom of the map.
+ * Pressing 'h' switches the hover mode on and off: the country under the cursor is outlined and its name shown.
  * 
  * Disclaimer: This project doesn't intend to accurately represent the data.
  * 
  * @author antonio baena
- * @see MyParseFeed
+ * @see parsing.MyParseFeed
  *
  */
 public class Map extends PApplet{
 	UnfoldingMap map;
-	HashMap<String, Float> populationDensityMap, healthPerCapitaMap, publicHealthMap, deathsMap, casesMap;
-	List<HashMap<String, Float>> myMaps = new ArrayList<HashMap<String, Float>>();
+	// Datasets and markers. Replaced as a whole when the data files change
+	DataSnapshot data;
+	DataReloader reloader;
 	
-	List<Feature> countries;
-	List<Marker> countryMarkers;
-	List<Marker> dataMarkers;
-	
-	Marker lastClicked;
+	// Clicked country (index of its marker), -1 if none. Its data is shown by a single DataMarker, drawn after the map
+	int selectedCountry = -1;
+	DataMarker dataMarker = new DataMarker();
+	// Dataset of the last clicked button, -1 if none
+	int selectedDataset = -1;
 
 	// Buttons locations
 	private int initialx = 50;
 	private int initialy = 20;
 	private int buttonSize = 20;
-	private int buttonMargin = 0;
+	private int buttonMargin = 5;
 	private int textxPadding = 25;
 	private int textyPadding = 15;
 	private int columnSize = 300;
@@ -50,137 +53,239 @@ public class Map extends PApplet{
 			"Health per capita expenses",
 			"Public health expenses over total",
 			"Covid-19 total cases",
-			"Covid-19 total deaths"};
+			"Covid-19 total deaths",
+			"Covid-19 total cases by WHO region",
+			"Compare all datasets"};
+	// Top left corner of each button, computed once in setup
+	private float[] buttonX, buttonY;
+
+	// Small multiples mode: one panel per dataset instead of the map
+	SmallMultiplesView smallMultiplesView;
+	boolean smallMultiples = false;
+
+	// Hover mode (key 'h'): the country under the cursor is outlined and its name shown next to it.
+	// Mouse events only mark the hover as outdated; the hit test runs at most once per frame, in draw
+	boolean hoverMode = false;
+	boolean hoverOutdated = false;
+	int hoveredCountry = -1;
+	String hoverText;
+	// Map transformation of the last hover test, the country under the cursor changes when the map moves
+	float[] hoverTransformation;
 
 	public void setup() {
 		// I have been having a lot of trouble with my linux computer with Intel Corporation HD Graphics 630 card.
 		// For some reason (a bug, I think) I can't use OPENGL. I found out that writing this line below I could, at least, make 
 		// the code work (I had to use this line in every module). Remove it if not necessary for you.
-		System.setProperty("jogl.disable.openglcore", "false");
+		if(renderer().equals(OPENGL)) System.setProperty("jogl.disable.openglcore", "false");
 		
-		size(1200, 800, OPENGL);
-		map = new UnfoldingMap(this, 50, 80, 1100, 700, new Google.GoogleMapProvider());
+		size(1200, 800, renderer());
+		map = new UnfoldingMap(this, 50, 80, 1100, 700, mapProvider());
 		MapUtils.createDefaultEventDispatcher(this, map);
 		map.zoom(2f);
+		layoutButtons();
 
-		// Load data
-		List<HashMap<String, Float>> mapsList = MyParseFeed.loadData(this,"data.csv");
-		populationDensityMap = mapsList.get(0);
-		healthPerCapitaMap = mapsList.get(1);
-		publicHealthMap = mapsList.get(2);
-		
-		List<HashMap<String, Float>> covidList = MyParseFeed.loadCovidData(this, "covid.csv");
-		deathsMap = covidList.get(0);
-		casesMap = covidList.get(1);
-		
-		myMaps.add(populationDensityMap);
-		myMaps.add(healthPerCapitaMap);
-		myMaps.add(publicHealthMap);
-		myMaps.add(deathsMap);
-		myMaps.add(casesMap);
+		// Load data files (plain or compressed) and create the markers. They are reloaded in the background whenever they change
+		List<File> dataDirectories = new ArrayList<File>();
+		dataDirectories.add(new File(sketchPath("mydata")));
+		dataDirectories.add(new File(sketchPath("data")));
+		reloader = new DataReloader(this, map, dataDirectories);
+		data = reloader.load();
+		map.addMarkerManager(data.countryLayer);
+		smallMultiplesView = new SmallMultiplesView(map, data.countryLayer.getGeometry(), 50, 80, 1100, 700);
+		reloader.start();
+	}
 
-		// Load country polygons and adds them as markers
-		countries = GeoJSONReader.loadData(this, "countries.geo.json");
-		countryMarkers = MapUtils.createSimpleMarkers(countries);
-		map.addMarkers(countryMarkers);
-		
-		dataMarkers = new ArrayList<Marker>();
-		for(Marker country:countryMarkers) {
-			boolean allPresent = true;
-			for(HashMap<String, Float> map:myMaps) {
-				if(!map.containsKey(country.getId())) {
-					allPresent = false;
-					break;
-				}
-			}
-			if(!allPresent) continue;
-			
-			String countryId = country.getId();
-			if(populationDensityMap.containsKey(countryId)) {
-				DataMarker dm = new DataMarker(country.getLocation(), country.getId(), (String)country.getProperty("name"),
-						populationDensityMap.get(countryId), healthPerCapitaMap.get(countryId),
-						publicHealthMap.get(countryId), deathsMap.get(countryId), casesMap.get(countryId));
-				dataMarkers.add(dm);
-			}
-		}
-		map.addMarkers(dataMarkers);
+	/**
+	 * Renderer of the sketch. OPENGL by default; the regression harness uses the software renderer (JAVA2D)
+	 */
+	protected String renderer() {
+		return OPENGL;
+	}
+
+	/**
+	 * Tiles shown under the countries. Google by default; the regression harness uses local MBTiles
+	 */
+	protected AbstractMapProvider mapProvider() {
+		return new Google.GoogleMapProvider();
+	}
+
+	protected UnfoldingMap getMap() {
+		return map;
+	}
+
+	/**
+	 * @return true if the countries are drawn with the projected buffers of the current scale (none is being projected)
+	 */
+	protected boolean isGeometryProjected() {
+		return data.countryLayer.getGeometry().isIdle();
+	}
+
+	/**
+	 * Replaces the data shown by the map with a new snapshot. Everything in the snapshot is already built, so this
+	 * only swaps references.
+	 */
+	private void applySnapshot(DataSnapshot snapshot) {
+		map.removeMarkerManager(data.countryLayer);
+		data = snapshot;
+		map.addMarkerManager(data.countryLayer);
+		smallMultiplesView = new SmallMultiplesView(map, data.countryLayer.getGeometry(), 50, 80, 1100, 700);
+
+		selectedCountry = -1;
+		hoveredCountry = -1;
+		hoverOutdated = true;
+		if(selectedDataset != -1) shadeCountries(data.getDatasetColors(selectedDataset));
+	}
+
+	@Override
+	public void dispose() {
+		if(reloader != null) reloader.stop();
+		super.dispose();
 	}
 	
 	@Override
 	public void mouseClicked() {
 		checkButtonClick();
-		checkCountryClick();
+		// the map isn't shown under the small multiples
+		if(!smallMultiples) checkCountryClick();
 		
 	}
 	
+	@Override
+	public void mouseMoved() {
+		hoverOutdated = true;
+	}
+
+	@Override
+	public void mouseDragged() {
+		hoverOutdated = true;
+	}
+
+	@Override
+	public void keyPressed() {
+		if(key == 'h') {
+			hoverMode = !hoverMode;
+			hoveredCountry = -1;
+			hoverOutdated = true;
+			data.countryLayer.setHighlighted(-1);
+		}
+	}
+
+	/**
+	 * Buttons are laid out in columns of two
+	 */
+	private void layoutButtons() {
+		buttonX = new float[buttonsText.length];
+		buttonY = new float[buttonsText.length];
+		for(int i = 0; i < buttonsText.length; i++) {
+			buttonX[i] = initialx + columnSize * (int)(i / 2);
+			buttonY[i] = initialy * (i % 2 == 0 ? 1 : 2) + buttonMargin * (i % 2 == 0 ? 0 : 1);
+		}
+	}
+	
 	private void checkButtonClick() {
 		for(int i = 0; i < buttonsText.length; i++) {
-			float x = initialx + columnSize * (int)(i / 2);
-			float y = initialy * (i % 2 == 0 ? 1 : 2) + buttonMargin * (i % 2 == 0 ? 0 : 1);
-			if(mouseX > x && mouseX < x + buttonSize
-					&& mouseY > y && mouseY < y + buttonSize) {
-				if(i == 0) {
-					// shade by population density 
-					float[] minMaxValues = findMinMaxValues(populationDensityMap);
-					shadeCountries(populationDensityMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], false);
-					return;
-				}else if(i == 1) {
-					// shade by health per capita
-					float[] minMaxValues = findMinMaxValues(healthPerCapitaMap);
-					shadeCountries(healthPerCapitaMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], true);
-					return;
-				}else if(i == 2) {
-					float[] minMaxValues = findMinMaxValues(publicHealthMap);
-					shadeCountries(publicHealthMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], true);
-					return;
-				}else if(i == 3) {
-					float[] minMaxValues = findMinMaxValues(casesMap);
-					shadeCountries(casesMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], false);
-					return;
-				}else if(i == 4) {
-					float[] minMaxValues = findMinMaxValues(deathsMap);
-					shadeCountries(deathsMap, minMaxValues[0], minMaxValues[1], minMaxValues[2], false);
-					return;
+			if(mouseX > buttonX[i] && mouseX < buttonX[i] + buttonSize
+					&& mouseY > buttonY[i] && mouseY < buttonY[i] + buttonSize) {
+				if(i < data.getDatasets().size()) {
+					// shade by the dataset of the button
+					smallMultiples = false;
+					selectedDataset = i;
+					shadeCountries(data.getDatasetColors(i));
+					hoverText = null;
+				}else {
+					// last button switches the small multiples on and off
+					smallMultiples = !smallMultiples;
 				}
+				return;
 			}
 		}
 	}
-	
+
 	private void checkCountryClick() {
-		// Check for clicks on countries
-		if(lastClicked != null) lastClicked.setHidden(true);
-		 Marker marker = map.getFirstHitMarker(mouseX, mouseY);
-		  if (marker != null) {
-			  for(Marker dataMarker:dataMarkers) {
-				  if(((DataMarker)dataMarker).getCountryId().equals(marker.getId())) {
-					  if(lastClicked != dataMarker) {
-						  dataMarker.setHidden(false);
-						  lastClicked = dataMarker;
-						  break;
-					  }else {
-						  lastClicked = null;
-					  }
-				  }
-			  }
-		  }
+		// Check for clicks on countries. Clicking the selected country again, or outside the countries, hides the data
+		int country = data.countryLayer.getHitIndex(mouseX, mouseY, -1);
+		if(country == -1 || country == selectedCountry || !data.hasAllIndicators(country)) {
+			selectedCountry = -1;
+		}else {
+			selectedCountry = country;
+			dataMarker.select(data.indicators, country);
+		}
 	}
 
 	public void draw() {
+		// Switch to the new data if the files have been reloaded
+		DataSnapshot reloaded = reloader.poll();
+		if(reloaded != null) applySnapshot(reloaded);
+
 		background(100);
-		map.draw();
+		if(smallMultiples) {
+			// the map isn't drawn, but it still has to follow pan and zoom events
+			map.updateMap();
+			smallMultiplesView.draw(g, buttonsText, data.getAllDatasetColors());
+		}else {
+			map.draw();
+			if(selectedCountry != -1) {
+				ScreenPosition position = map.getScreenPosition(dataMarker.getLocation());
+				dataMarker.draw(g, position.x, position.y);
+			}
+			// after map.draw, which applies the pending pan, zoom and tweening: the hit test must use the
+			// transformation of the frame on screen. The outline follows in the next frame
+			if(hoverMode) {
+				updateHover();
+				drawHover();
+			}
+		}
 		addKey();
 	}
+
+	/**
+	 * Hit tests the cursor if it or the map have moved since the last test
+	 */
+	private void updateHover() {
+		float[] transformation = ProjectedGeometryCache.getTransformation(map.mapDisplay);
+		if(!hoverOutdated && Arrays.equals(transformation, hoverTransformation)) return;
+		hoverOutdated = false;
+		hoverTransformation = transformation;
+
+		int country = data.countryLayer.getHitIndex(mouseX, mouseY, hoveredCountry);
+		if(country != hoveredCountry) {
+			hoveredCountry = country;
+			hoverText = null;
+			data.countryLayer.setHighlighted(country);
+		}
+	}
+
+	/**
+	 * Draws the tooltip of the hovered country. Its text only changes with the country or the dataset
+	 */
+	private void drawHover() {
+		if(hoveredCountry == -1) return;
+		if(hoverText == null) {
+			Marker country = data.countryMarkers.get(hoveredCountry);
+			hoverText = country.getStringProperty("name");
+			if(selectedDataset != -1) {
+				Float value = data.getDatasets().get(selectedDataset).get(country.getId());
+				hoverText += "\n" + buttonsText[selectedDataset] + ": " + (value == null ? "no data" : value);
+			}
+		}
+		pushStyle();
+		fill(255,255,255);
+		stroke(0,0,0);
+		rect(mouseX + 12, mouseY + 12, textWidth(hoverText) + 20, hoverText.indexOf('\n') == -1 ? 25 : 40);
+		fill(0,0,0);
+		text(hoverText, mouseX + 22, mouseY + 30);
+		popStyle();
+	}
 	
 	// helper method to draw key in GUI
 	private void addKey() {
 		// Create buttons and text
 		for(int i = 0; i < buttonsText.length; i++) {
-			if(i != 0) buttonMargin = 5;
 			fill(150,150,150);
 			stroke(0,0,0);
-			rect(initialx + columnSize * (int)(i / 2), initialy * (i % 2 == 0 ? 1 : 2) + buttonMargin * (i % 2 == 0 ? 0 : 1), buttonSize, buttonSize);
+			rect(buttonX[i], buttonY[i], buttonSize, buttonSize);
 			fill(255,255,255);
-			text(buttonsText[i], initialx + textxPadding + columnSize * (int)(i / 2), initialy * (i % 2 == 0 ? 1 : 2) + buttonMargin * (i % 2 == 0 ? 0 : 1) + textyPadding);
+			text(buttonsText[i], buttonX[i] + textxPadding, buttonY[i] + textyPadding);
 		}
 		
 		// Create the color key next to the map
@@ -211,159 +316,12 @@ public class Map extends PApplet{
 	}
 
 	/**
-	 * This method shades countries depending on the selected dataset. Since I found many outliers in the data (extreme values that distorted the results),
-	 * I decided to eliminate the values that are above or below the mean by two times the standard deviation, and apply this filter twice. Again, as stated before,
-	 * not that this is the best method to remove outliers, but since this isn't about data cleaning, I simply tuned it until I got some useful and decent results.
-	 * 
-	 * I also decided to split the data representation into two categories: countries that are above the mean and those that are below it. Countries below the mean
-	 * will range from red to yellow, whereas countries above the mean will range from yellow to blue. So, instead of ranging from red to blue, countries range from
-	 * red to yellow and to blue (wider range, finer representation).
-	 * 
-	 * @param dataMap
-	 * @param minValue Calculated in method findMinMaxValues
-	 * @param maxValue Calculated in method findMinMaxValues
-	 * @param higherIsBetter true if higher values in the dataset are a good thing (for example, higher values in total covid deaths isn't a good thing, so
-	 * it should be set to false, whereas health expenses per capita should be set to true)
+	 * Shades every country with the given colors (see computeCountryColors)
+	 * @param colors color of each country, in the order of countryMarkers
 	 */
-	private void shadeCountries(HashMap<String, Float> dataMap, float minValue, float maxValue, float mean, boolean higherIsBetter) {
-		for (Marker marker : countryMarkers) {
-			// Find data for country of the current marker
-			String countryId = marker.getId();
-			if (dataMap.containsKey(countryId)) {
-				//System.out.println(minValue + ", " + maxValue);
-				//System.out.println(marker.getProperty("name"));
-				//System.out.println("Media: " + median);
-				if(higherIsBetter) {
-					float colorLevel;
-					if(dataMap.get(countryId) >= mean) {
-						colorLevel = (dataMap.get(countryId) - mean) / (maxValue - mean);
-						//System.out.println("Above media: " + colorLevel);
-						//System.out.println("Country value: " + dataMap.get(countryId));
-						marker.setColor(color(255 * (1 - colorLevel), 255 * (1 - colorLevel), 255 * colorLevel));
-					}else {
-						colorLevel = (mean - dataMap.get(countryId))/(mean - minValue);
-						//System.out.println("Below media: " + colorLevel);
-						//System.out.println("Country value: " + dataMap.get(countryId));
-						marker.setColor(color(255, 255 * (1 - colorLevel), 0));
-					}
-				}else {
-					float colorLevel;
-					if(dataMap.get(countryId) <= mean) {
-						colorLevel = (mean - dataMap.get(countryId)) / (mean - minValue);
-						//System.out.println("Below media: " + colorLevel);
-						//System.out.println("Country value: " + dataMap.get(countryId));
-						marker.setColor(color(255 * (1 - colorLevel), 255 * (1 - colorLevel), 255 * colorLevel));
-					}else {
-						colorLevel = ((dataMap.get(countryId) - mean)) / (maxValue - mean);
-						if(colorLevel > 1) colorLevel = 1;
-						//System.out.println("Above media: " + colorLevel);
-						//System.out.println("Country value: " + dataMap.get(countryId));
-						marker.setColor(color(255, 255 * (1 - colorLevel), 0));
-					}
-				}
-				//System.out.println();
-			}
-			else {
-				marker.setColor(color(0,0,0));
-			}
+	private void shadeCountries(int[] colors) {
+		for (int i = 0; i < data.countryMarkers.size(); i++) {
+			data.countryLayer.setColor(i, colors[i]);
 		}
 	}
-	
-	/**
-	 * Removes some outliers and returns the mean, max and min values (once outliers have been removed). I needed to do this
-	 * because there were so many extreme values that every country ended up being either completely blue, or completely red, with only two
-	 * or three different shades in the whole map.
-	 * This is only logical since wealth distribution is very different in the first, second and third world. Another possible solution would
-	 * have been to colorize data differently for each world, but I chose to go with this. Feel free to test new ways.
-	 * 
-	 * @param map
-	 * @return
-	 */
-	private float[] findMinMaxValues(HashMap<String, Float> map) {
-		float minMaxValues[] = new float[3];
-		
-		// Create a copy of the map to work on because we will remove some keys
-		HashMap<String, Float> copyMap = new HashMap<String, Float>();
-		for(String key:map.keySet()) copyMap.put(key, map.get(key));
-		
-		float mean = 0;
-		float std = 0;
-		ArrayList<String> keysRemove = new ArrayList<String>();
-		
-		// go through the dataset a number of times to remove outliers
-		// two or three iterations should be enough
-		do{
-			mean = calculateMean(copyMap);
-			std = calculateStandardDeviation(copyMap, mean);
-			//System.out.println("mean: " + mean);
-			//System.out.println("std: " + std);
-			//System.out.println("diff: " + abs(mean - std));
-			for(String key:copyMap.keySet()) {
-				if(abs(copyMap.get(key) - mean) > 2 * std) keysRemove.add(key);
-			}
-			for(String key:keysRemove) {
-				//System.out.println("Removing a key: " + key);
-				copyMap.remove(key);
-			}
-			//System.out.println();
-		}while(2 * mean < std);
-		
-		//System.out.println("final mean: " + mean);
-		//System.out.println("final std: " + std);
-		float minValue = Float.MAX_VALUE;
-		float maxValue = 0;
-		
-		for(String key:map.keySet()) {
-			if(abs(map.get(key) - mean) > std || map.get(key) == 0) {
-				continue;
-			}
-			if(map.get(key) < minValue) minValue = map.get(key);
-			if(map.get(key) > maxValue) maxValue = map.get(key);
-		}
-		
-		minMaxValues[0] = minValue;
-		minMaxValues[1] = maxValue;
-		minMaxValues[2] = mean;
-		
-		return minMaxValues;
-	}
-	
-	private float calculateStandardDeviation(HashMap<String, Float> map, float mean) {
-		
-		float variance = calculateVariance(map, mean);
-		
-		return (float)Math.sqrt(variance);
-	}
-	
-	private float calculateMean(HashMap<String, Float> map) {
-		float mean = 0;
-		int count = 0;
-		
-		for(String key:map.keySet()) {
-			if(map.get(key) == 0) {
-				continue;
-			}
-			mean += map.get(key);
-			count++;
-		}
-		mean = mean / count;
-		return mean;
-	}
-	
-	private float calculateVariance(HashMap<String, Float> map, float mean) {
-		float variance = 0;
-		int count = 0;
-		
-		for(String key:map.keySet()) {
-			if(map.get(key) == 0) {
-				continue;
-			}
-			variance += Math.pow(map.get(key) - mean, 2);
-			count++;
-		}
-		
-		variance = variance / count;
-		
-		return variance;
-	}
-}
+}
\ No newline at end of file
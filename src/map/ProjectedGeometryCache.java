@@ -0,0 +1,388 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.mapdisplay.AbstractMapDisplay;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * Projected geometry of a list of polygon markers (the country markers).
+ *
+ * Lat/lon are projected only once, when the cache is created, to zoom independent map pixels (map pixels at zoom 0,
+ * the "inner object" position of Unfolding). For every scale the map is drawn at, those are multiplied into world
+ * pixels and kept in float[] buffers, so drawing a frame is just a translation (the pan) plus the cached vertices.
+ * When the map is zoomed, the buffers for the new scale are computed in a background thread while the buffers of the
+ * last scale are drawn with an extra scale factor, so the render thread never waits for the projection. The first
+ * buffers are computed in the background too: until they are ready (after the cache is created, at startup or when
+ * the data is reloaded) nothing is drawn.
+ *
+ * Fill colors are given when drawing, one per marker, so the same geometry can be drawn with different colors. On
+ * OPENGL renderers drawRetained keeps the polygons of every cached scale tessellated in a PShape, so drawing a frame
+ * doesn't send the vertices again.
+ *
+ * @see CountryLayer
+ *
+ */
+public class ProjectedGeometryCache {
+
+	// Number of scales kept in the cache
+	private static final int MAX_CACHED_SCALES = 4;
+
+	// Projects in the background, the thread doesn't keep the sketch alive
+	private static final ExecutorService projector = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "geometry-projection");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final int markerCount;
+
+	// Polygons: exterior ring polygonFirstRing[i], followed by polygonRingCount[i] - 1 interior rings
+	private final int[] polygonMarker;
+	private final int[] polygonFirstRing;
+	private final int[] polygonRingCount;
+
+	// Rings as x0, y0, x1, y1... in zoom independent map pixels
+	private final float[][] innerRings;
+	// Bounding box of every polygon (of its exterior ring) in zoom independent map pixels, for hit testing
+	private final float[] polygonMinX, polygonMinY, polygonMaxX, polygonMaxY;
+
+	// scale -> rings in world pixels at that scale. Only used from the render thread
+	private final LinkedHashMap<Float, float[][]> projected = new LinkedHashMap<Float, float[][]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<Float, float[][]> eldest) {
+			return size() > MAX_CACHED_SCALES;
+		}
+	};
+
+	private Future<float[][]> job;
+	private float jobScale = Float.NaN;
+	// Scale whose projection failed, not submitted again
+	private float failedScale = Float.NaN;
+
+	// scale -> retained shape of the polygons at that scale: a GROUP with a GROUP child per marker
+	private final LinkedHashMap<Float, PShape> shapes = new LinkedHashMap<Float, PShape>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<Float, PShape> eldest) {
+			return size() > MAX_CACHED_SCALES;
+		}
+	};
+
+	/**
+	 * @param display display of the map the markers will be drawn on
+	 * @param markers polygon markers (SimplePolygonMarker or MultiMarker of them). Other markers are ignored
+	 */
+	public ProjectedGeometryCache(AbstractMapDisplay display, List<Marker> markers) {
+		markerCount = markers.size();
+		List<Integer> owners = new ArrayList<Integer>();
+		List<Integer> firstRings = new ArrayList<Integer>();
+		List<Integer> ringCounts = new ArrayList<Integer>();
+		List<float[]> rings = new ArrayList<float[]>();
+
+		for(int i = 0; i < markerCount; i++) {
+			List<Marker> parts = new ArrayList<Marker>();
+			if(markers.get(i) instanceof MultiMarker) {
+				parts.addAll(((MultiMarker)markers.get(i)).getMarkers());
+			}else {
+				parts.add(markers.get(i));
+			}
+			for(Marker part : parts) {
+				if(!(part instanceof AbstractShapeMarker)) continue;
+				AbstractShapeMarker shape = (AbstractShapeMarker)part;
+				owners.add(i);
+				firstRings.add(rings.size());
+				rings.add(project(display, shape.getLocations()));
+				int count = 1;
+				if(shape.getInteriorRings() != null) {
+					for(List<Location> hole : shape.getInteriorRings()) {
+						rings.add(project(display, hole));
+						count++;
+					}
+				}
+				ringCounts.add(count);
+			}
+		}
+
+		polygonMarker = toArray(owners);
+		polygonFirstRing = toArray(firstRings);
+		polygonRingCount = toArray(ringCounts);
+		innerRings = rings.toArray(new float[rings.size()][]);
+
+		int polygons = polygonMarker.length;
+		polygonMinX = new float[polygons];
+		polygonMinY = new float[polygons];
+		polygonMaxX = new float[polygons];
+		polygonMaxY = new float[polygons];
+		for(int p = 0; p < polygons; p++) {
+			float[] exterior = innerRings[polygonFirstRing[p]];
+			polygonMinX[p] = polygonMinY[p] = Float.POSITIVE_INFINITY;
+			polygonMaxX[p] = polygonMaxY[p] = Float.NEGATIVE_INFINITY;
+			for(int v = 0; v < exterior.length; v += 2) {
+				polygonMinX[p] = Math.min(polygonMinX[p], exterior[v]);
+				polygonMaxX[p] = Math.max(polygonMaxX[p], exterior[v]);
+				polygonMinY[p] = Math.min(polygonMinY[p], exterior[v + 1]);
+				polygonMaxY[p] = Math.max(polygonMaxY[p], exterior[v + 1]);
+			}
+		}
+	}
+
+	private static float[] project(AbstractMapDisplay display, List<Location> locations) {
+		float[] ring = new float[locations.size() * 2];
+		for(int i = 0; i < locations.size(); i++) {
+			float[] xy = display.getInnerObjectFromLocation(locations.get(i));
+			ring[2 * i] = xy[0];
+			ring[2 * i + 1] = xy[1];
+		}
+		return ring;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++) array[i] = list.get(i);
+		return array;
+	}
+
+	public int getMarkerCount() {
+		return markerCount;
+	}
+
+	/**
+	 * @param x zoom independent map pixels (see AbstractMapDisplay.getInnerObject)
+	 * @param y
+	 * @return index of the first marker with a polygon containing the point, or -1 if there is none
+	 */
+	public int getMarkerAt(float x, float y) {
+		for(int p = 0; p < polygonMarker.length; p++) {
+			if(polygonContains(p, x, y)) return polygonMarker[p];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if any polygon of the marker contains the point (zoom independent map pixels)
+	 */
+	public boolean contains(int marker, float x, float y) {
+		for(int p = 0; p < polygonMarker.length; p++) {
+			if(polygonMarker[p] == marker && polygonContains(p, x, y)) return true;
+		}
+		return false;
+	}
+
+	private boolean polygonContains(int p, float x, float y) {
+		if(x < polygonMinX[p] || x > polygonMaxX[p] || y < polygonMinY[p] || y > polygonMaxY[p]) return false;
+		// even-odd rule over the exterior ring and the holes
+		boolean inside = false;
+		int first = polygonFirstRing[p];
+		for(int r = first; r < first + polygonRingCount[p]; r++) {
+			float[] ring = innerRings[r];
+			for(int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+				float yi = ring[i + 1], yj = ring[j + 1];
+				if((yi > y) != (yj > y) && x < (ring[j] - ring[i]) * (y - yi) / (yj - yi) + ring[i]) inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Current transformation of the map from zoom independent map pixels to the pixels markers are drawn in
+	 * @return {translation x, translation y, scale}
+	 */
+	public static float[] getTransformation(AbstractMapDisplay display) {
+		float[] origin = display.getObjectFromInnerObjectPosition(0, 0);
+		float[] unit = display.getObjectFromInnerObjectPosition(1, 0);
+		return new float[] {origin[0], origin[1], unit[0] - origin[0]};
+	}
+
+	/**
+	 * Draws the polygons at the given transformation
+	 *
+	 * @param pg graphics to draw on
+	 * @param tx translation x
+	 * @param ty translation y
+	 * @param scale world pixels per zoom independent map pixel
+	 * @param colors fill color of each marker
+	 * @param hidden markers not to draw, may be null
+	 */
+	public void draw(PGraphics pg, float tx, float ty, float scale, int[] colors, boolean[] hidden) {
+		float bufferScale = getBufferScale(scale);
+		if(Float.isNaN(bufferScale)) return;
+		float[][] rings = projected.get(bufferScale);
+
+		pg.pushMatrix();
+		pg.translate(tx, ty);
+		// while the buffers of this scale are being computed, draw the closest ones scaled
+		if(bufferScale != scale) pg.scale(scale / bufferScale);
+		for(int p = 0; p < polygonMarker.length; p++) {
+			int marker = polygonMarker[p];
+			if(hidden != null && hidden[marker]) continue;
+			pg.fill(colors[marker]);
+			drawPolygon(pg, rings, p);
+		}
+		pg.popMatrix();
+	}
+
+	/**
+	 * Draws the polygons of a single marker (with the current style of pg)
+	 */
+	public void drawMarker(PGraphics pg, float tx, float ty, float scale, int marker) {
+		float bufferScale = getBufferScale(scale);
+		if(Float.isNaN(bufferScale)) return;
+		float[][] rings = projected.get(bufferScale);
+
+		pg.pushMatrix();
+		pg.translate(tx, ty);
+		if(bufferScale != scale) pg.scale(scale / bufferScale);
+		for(int p = 0; p < polygonMarker.length; p++) {
+			if(polygonMarker[p] == marker) drawPolygon(pg, rings, p);
+		}
+		pg.popMatrix();
+	}
+
+	/**
+	 * Draws the polygons like draw, from a retained shape (OPENGL renderers only). A shape is tessellated once per
+	 * buffer scale; drawing it again, with the same or other colors, only changes the fill of its children, which
+	 * PShape updates in place. Polygons are stroked with the current stroke color and weight of pg when the shape is
+	 * built.
+	 */
+	public void drawRetained(PGraphics pg, float tx, float ty, float scale, int[] colors) {
+		float bufferScale = getBufferScale(scale);
+		if(Float.isNaN(bufferScale)) return;
+		PShape shape = shapes.get(bufferScale);
+		if(shape == null) {
+			shape = createShape(pg, projected.get(bufferScale));
+			shapes.put(bufferScale, shape);
+		}
+		for(int marker = 0; marker < markerCount; marker++) shape.getChild(marker).setFill(colors[marker]);
+
+		pg.pushMatrix();
+		pg.translate(tx, ty);
+		if(bufferScale != scale) pg.scale(scale / bufferScale);
+		pg.shape(shape);
+		pg.popMatrix();
+	}
+
+	private PShape createShape(PGraphics pg, float[][] rings) {
+		PShape group = pg.createShape(PConstants.GROUP);
+		PShape[] markers = new PShape[markerCount];
+		for(int marker = 0; marker < markerCount; marker++) {
+			markers[marker] = pg.createShape(PConstants.GROUP);
+			group.addChild(markers[marker]);
+		}
+		for(int p = 0; p < polygonMarker.length; p++) {
+			int first = polygonFirstRing[p];
+			PShape polygon = pg.createShape();
+			polygon.beginShape();
+			polygon.stroke(pg.strokeColor);
+			polygon.strokeWeight(pg.strokeWeight);
+			float[] exterior = rings[first];
+			for(int v = 0; v < exterior.length; v += 2) polygon.vertex(exterior[v], exterior[v + 1]);
+			for(int r = first + 1; r < first + polygonRingCount[p]; r++) {
+				polygon.beginContour();
+				float[] hole = rings[r];
+				for(int v = 0; v < hole.length; v += 2) polygon.vertex(hole[v], hole[v + 1]);
+				polygon.endContour();
+			}
+			polygon.endShape(PConstants.CLOSE);
+			markers[polygonMarker[p]].addChild(polygon);
+		}
+		return group;
+	}
+
+	private void drawPolygon(PGraphics pg, float[][] rings, int p) {
+		int first = polygonFirstRing[p];
+		pg.beginShape();
+		float[] exterior = rings[first];
+		for(int v = 0; v < exterior.length; v += 2) pg.vertex(exterior[v], exterior[v + 1]);
+		for(int r = first + 1; r < first + polygonRingCount[p]; r++) {
+			pg.beginContour();
+			float[] hole = rings[r];
+			for(int v = 0; v < hole.length; v += 2) pg.vertex(hole[v], hole[v + 1]);
+			pg.endContour();
+		}
+		pg.endShape(PConstants.CLOSE);
+	}
+
+	/**
+	 * @return true if no projection is running, so the last frame was drawn with the buffers of its own scale
+	 */
+	public boolean isIdle() {
+		return job == null;
+	}
+
+	/**
+	 * Returns the scale of the buffers to draw for the given scale, starting the projection for that scale if needed
+	 * @return the scale, the closest cached one while it is projected, or NaN if there are no buffers yet
+	 */
+	private float getBufferScale(float scale) {
+		collectJob();
+		if(projected.containsKey(scale)) return scale;
+
+		if(job == null && scale != failedScale) {
+			final float target = scale;
+			jobScale = scale;
+			job = projector.submit(new Callable<float[][]>() {
+				@Override
+				public float[][] call() {
+					return scale(innerRings, target);
+				}
+			});
+		}
+
+		// first buffers still being projected, nothing to fall back to
+		if(projected.isEmpty()) return Float.NaN;
+
+		// closest cached scale
+		float best = 0;
+		for(float cached : projected.keySet()) {
+			if(best == 0 || Math.abs(Math.log(cached / scale)) < Math.abs(Math.log(best / scale))) best = cached;
+		}
+		return best;
+	}
+
+	private void collectJob() {
+		if(job == null || !job.isDone()) return;
+		try {
+			projected.put(jobScale, job.get());
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}catch(ExecutionException e) {
+			System.err.println("Could not project the geometry at scale " + jobScale + ": " + e.getCause());
+			failedScale = jobScale;
+		}
+		job = null;
+		jobScale = Float.NaN;
+	}
+
+	private static float[][] scale(float[][] rings, float scale) {
+		float[][] result = new float[rings.length][];
+		for(int r = 0; r < rings.length; r++) {
+			float[] ring = rings[r];
+			float[] scaled = new float[ring.length];
+			for(int v = 0; v < ring.length; v++) scaled[v] = ring[v] * scale;
+			result[r] = scaled;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,88 @@
+package map;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import processing.core.PGraphics;
+
+/**
+ * Shows several datasets side by side, one small panel per dataset, all of them with the view (center and zoom) of the
+ * same UnfoldingMap, so panning or zooming the map moves every panel at once.
+ *
+ * Panels aren't UnfoldingMaps: they share the ProjectedGeometryCache of the country markers and only differ in the
+ * array of colors used to fill the countries. Every panel is the map view scaled down to the panel size, so all of
+ * them use the same cached world pixel buffers. On OPENGL renderers the countries are tessellated once into a
+ * retained shape and every panel only changes its fill colors; other renderers draw the buffers once per panel.
+ *
+ * @see ProjectedGeometryCache
+ *
+ */
+public class SmallMultiplesView {
+
+	private static final int TITLE_HEIGHT = 18;
+	private static final int PADDING = 6;
+
+	private UnfoldingMap map;
+	private ProjectedGeometryCache geometry;
+	private float x, y, width, height;
+
+	/**
+	 * @param map map whose view is shown in the panels
+	 * @param geometry geometry of the country markers of the map
+	 * @param x left of the area taken by the panels (screen)
+	 * @param y top of the area taken by the panels (screen)
+	 * @param width
+	 * @param height
+	 */
+	public SmallMultiplesView(UnfoldingMap map, ProjectedGeometryCache geometry, float x, float y, float width, float height) {
+		this.map = map;
+		this.geometry = geometry;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Draws a panel per dataset
+	 *
+	 * @param pg graphics to draw on (the sketch graphics)
+	 * @param titles title of each panel
+	 * @param colors fill colors of the country markers for each panel
+	 */
+	public void draw(PGraphics pg, String[] titles, int[][] colors) {
+		int panels = colors.length;
+		int columns = (int)Math.ceil(Math.sqrt(panels * width / height));
+		int rows = (int)Math.ceil(panels / (float)columns);
+		float cellWidth = width / columns;
+		float cellHeight = height / rows;
+
+		// keep the aspect ratio of the map
+		float factor = Math.min((cellWidth - 2 * PADDING) / map.getWidth(),
+				(cellHeight - 2 * PADDING - TITLE_HEIGHT) / map.getHeight());
+		float panelWidth = map.getWidth() * factor;
+		float panelHeight = map.getHeight() * factor;
+
+		float[] transformation = ProjectedGeometryCache.getTransformation(map.mapDisplay);
+
+		pg.pushStyle();
+		for(int i = 0; i < panels; i++) {
+			float px = x + (i % columns) * cellWidth + PADDING;
+			float py = y + (i / columns) * cellHeight + PADDING + TITLE_HEIGHT;
+
+			pg.fill(255);
+			pg.text(titles[i], px, py - 5);
+
+			pg.fill(200);
+			pg.stroke(0);
+			pg.rect(px, py, panelWidth, panelHeight);
+
+			pg.clip(px, py, panelWidth, panelHeight);
+			pg.stroke(CountryLayer.DEFAULT_STROKE_COLOR);
+			pg.strokeWeight(1);
+			float tx = px + factor * transformation[0], ty = py + factor * transformation[1];
+			if(pg.isGL()) geometry.drawRetained(pg, tx, ty, factor * transformation[2], colors[i]);
+			else geometry.draw(pg, tx, ty, factor * transformation[2], colors[i], null);
+			pg.noClip();
+		}
+		pg.popStyle();
+	}
+}
@@ -0,0 +1,86 @@
+package map;
+
+import java.util.HashMap;
+
+import processing.core.PGraphics;
+import store.FeatureStore;
+
+/**
+ * Marker that is only a view over a row of a FeatureStore. It holds no properties of its own: they are read from the
+ * store columns when asked for, so creating markers for a store doesn't copy its data.
+ *
+ * @see FeatureStore
+ *
+ */
+public class StoreMarker extends CommonMarker {
+
+	private final FeatureStore store;
+	private final int row;
+
+	public StoreMarker(FeatureStore store, int row) {
+		super(store.getLocation(row));
+		this.store = store;
+		this.row = row;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public FeatureStore getStore() {
+		return store;
+	}
+
+	@Override
+	public Object getProperty(String key) {
+		int column = store.getSchema().indexOf(key);
+		return column == -1 ? null : store.getValue(row, column);
+	}
+
+	@Override
+	public String getStringProperty(String key) {
+		Object value = getProperty(key);
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public HashMap<String, Object> getProperties() {
+		return store.getProperties(row);
+	}
+
+	/**
+	 * Draws the marker, and its title only when it is selected or clicked (the title lists the whole row)
+	 */
+	@Override
+	public void draw(PGraphics pg, float x, float y) {
+		if(hidden) return;
+		drawMarker(pg, x, y);
+		if(selected || clicked) showTitle(pg, x, y);
+	}
+
+	@Override
+	public void drawMarker(PGraphics pg, float x, float y) {
+		pg.pushStyle();
+		pg.fill(color);
+		pg.stroke(strokeColor);
+		pg.ellipse(x, y, radius, radius);
+		pg.popStyle();
+	}
+
+	@Override
+	public void showTitle(PGraphics pg, float x, float y) {
+		FeatureStore.Schema schema = store.getSchema();
+		String title = "";
+		for(int c = 0; c < schema.size(); c++) {
+			Object value = store.getValue(row, c);
+			if(value != null) title += schema.getName(c) + ": " + value + "\n";
+		}
+
+		pg.pushStyle();
+		pg.fill(255,255,255);
+		pg.rect(x, y, 250, 20 + 15 * schema.size());
+		pg.fill(0,0,0);
+		pg.text(title, x + 10, y + 15);
+		pg.popStyle();
+	}
+}
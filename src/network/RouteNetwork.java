@@ -0,0 +1,276 @@
+package network;
+
+import java.util.Arrays;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import store.StringDictionary;
+
+/**
+ * Compact airport/route graph. OpenFlights airport ids are interned to dense indexes (0..airportCount-1) and every
+ * airport field is kept in its own primitive array, so an airport is just an int.
+ *
+ * Routes are stored as a compressed sparse row (CSR) adjacency: the destinations of airport i are
+ * targets[offsets[i]] .. targets[offsets[i + 1] - 1], sorted and without duplicates (several airlines flying the same
+ * pair of airports count as a single connection). The whole OpenFlights routes file fits in a couple of int arrays
+ * instead of one ShapeFeature per route.
+ *
+ * Use the Builder (or ParseFeed.parseRouteNetwork) to create it.
+ *
+ * @see parsing.ParseFeed#parseRouteNetwork
+ *
+ */
+public class RouteNetwork {
+
+	// Airports, indexed by airport index
+	private final StringDictionary ids;
+	private final String[] codes;
+	private final float[] lats, lons, altitudes;
+
+	// CSR adjacency. offsets has airportCount + 1 entries
+	private final int[] offsets;
+	private final int[] targets;
+
+	private final int routeCount;
+
+	private RouteNetwork(StringDictionary ids, String[] codes, float[] lats, float[] lons, float[] altitudes,
+			int[] offsets, int[] targets, int routeCount) {
+		this.ids = ids;
+		this.codes = codes;
+		this.lats = lats;
+		this.lons = lons;
+		this.altitudes = altitudes;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.routeCount = routeCount;
+	}
+
+	public int getAirportCount() {
+		return codes.length;
+	}
+
+	/**
+	 * @return number of distinct (source, destination) connections
+	 */
+	public int getConnectionCount() {
+		return targets.length;
+	}
+
+	/**
+	 * @return number of routes read, including the ones repeated by several airlines
+	 */
+	public int getRouteCount() {
+		return routeCount;
+	}
+
+	/**
+	 * @param openFlightsId
+	 * @return the airport index, or -1 if there is no such airport
+	 */
+	public int indexOf(String openFlightsId) {
+		return ids.indexOf(openFlightsId);
+	}
+
+	public String getId(int airport) {
+		return ids.get(airport);
+	}
+
+	/**
+	 * @param airport
+	 * @return IATA/FAA code, or ICAO code if the airport has no IATA one (may be empty)
+	 */
+	public String getCode(int airport) {
+		return codes[airport];
+	}
+
+	public float getLat(int airport) {
+		return lats[airport];
+	}
+
+	public float getLon(int airport) {
+		return lons[airport];
+	}
+
+	public float getAltitude(int airport) {
+		return altitudes[airport];
+	}
+
+	public Location getLocation(int airport) {
+		return new Location(lats[airport], lons[airport]);
+	}
+
+	/**
+	 * @param airport
+	 * @return number of airports reachable from this one with a direct flight
+	 */
+	public int degree(int airport) {
+		return offsets[airport + 1] - offsets[airport];
+	}
+
+	/**
+	 * Allocation free access to the neighbours of an airport, to be used together with degree:
+	 * for(int k = 0; k < net.degree(a); k++) net.neighbour(a, k)
+	 */
+	public int neighbour(int airport, int k) {
+		return targets[offsets[airport] + k];
+	}
+
+	/**
+	 * @param airport
+	 * @return a sorted copy of the destinations of the airport
+	 */
+	public int[] neighbours(int airport) {
+		return Arrays.copyOfRange(targets, offsets[airport], offsets[airport + 1]);
+	}
+
+	/**
+	 * @return true if there is a direct flight from -> to. Binary search over the sorted neighbours.
+	 */
+	public boolean hasRoute(int from, int to) {
+		return Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to) >= 0;
+	}
+
+	/**
+	 * Breadth first search for a path with the minimum number of flights.
+	 *
+	 * @param from airport index
+	 * @param to airport index
+	 * @return the airports of the path, both ends included, or an empty array if "to" can't be reached from "from"
+	 */
+	public int[] shortestPath(int from, int to) {
+		if(from == to) return new int[] {from};
+
+		int n = getAirportCount();
+		int[] parent = new int[n];
+		Arrays.fill(parent, -1);
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+
+		parent[from] = from;
+		queue[tail++] = from;
+		while(head < tail) {
+			int current = queue[head++];
+			for(int e = offsets[current]; e < offsets[current + 1]; e++) {
+				int next = targets[e];
+				if(parent[next] != -1) continue;
+				parent[next] = current;
+				if(next == to) return buildPath(parent, from, to);
+				queue[tail++] = next;
+			}
+		}
+		return new int[0];
+	}
+
+	/**
+	 * @return minimum number of flights needed to go from -> to, or -1 if it isn't possible
+	 */
+	public int hops(int from, int to) {
+		return shortestPath(from, to).length - 1;
+	}
+
+	private static int[] buildPath(int[] parent, int from, int to) {
+		int length = 1;
+		for(int a = to; a != from; a = parent[a]) length++;
+
+		int[] path = new int[length];
+		int a = to;
+		for(int i = length - 1; i >= 0; i--) {
+			path[i] = a;
+			a = parent[a];
+		}
+		return path;
+	}
+
+	/**
+	 * Collects airports and routes (in any order) and packs them into a RouteNetwork.
+	 * Routes whose source or destination airport is never added are dropped when building.
+	 */
+	public static class Builder {
+		private StringDictionary ids = new StringDictionary();
+		private String[] codes = new String[1024];
+		private float[] lats = new float[1024];
+		private float[] lons = new float[1024];
+		private float[] altitudes = new float[1024];
+
+		// Routes are kept by OpenFlights id until build() because airports may come later
+		private StringDictionary routeIds = new StringDictionary();
+		private int[] sources = new int[4096];
+		private int[] destinations = new int[4096];
+		private int routeCount = 0;
+
+		/**
+		 * Adds an airport. If the id was already added, the previous values are overwritten.
+		 */
+		public Builder addAirport(String openFlightsId, String code, float lat, float lon, float altitude) {
+			int airport = ids.intern(openFlightsId);
+			if(airport == codes.length) {
+				int capacity = codes.length * 2;
+				codes = Arrays.copyOf(codes, capacity);
+				lats = Arrays.copyOf(lats, capacity);
+				lons = Arrays.copyOf(lons, capacity);
+				altitudes = Arrays.copyOf(altitudes, capacity);
+			}
+			codes[airport] = code;
+			lats[airport] = lat;
+			lons[airport] = lon;
+			altitudes[airport] = altitude;
+			return this;
+		}
+
+		public Builder addRoute(String sourceId, String destinationId) {
+			if(routeCount == sources.length) {
+				sources = Arrays.copyOf(sources, routeCount * 2);
+				destinations = Arrays.copyOf(destinations, routeCount * 2);
+			}
+			sources[routeCount] = routeIds.intern(sourceId);
+			destinations[routeCount] = routeIds.intern(destinationId);
+			routeCount++;
+			return this;
+		}
+
+		public RouteNetwork build() {
+			int n = ids.size();
+
+			// translate route ids to airport indexes (-1 for unknown airports)
+			int[] toAirport = new int[routeIds.size()];
+			for(int i = 0; i < toAirport.length; i++) toAirport[i] = ids.indexOf(routeIds.get(i));
+
+			// count the routes leaving every airport
+			int[] offsets = new int[n + 1];
+			for(int r = 0; r < routeCount; r++) {
+				int src = toAirport[sources[r]];
+				if(src != -1 && toAirport[destinations[r]] != -1) offsets[src + 1]++;
+			}
+			for(int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+
+			// fill the rows
+			int[] targets = new int[offsets[n]];
+			int[] next = Arrays.copyOf(offsets, n);
+			for(int r = 0; r < routeCount; r++) {
+				int src = toAirport[sources[r]];
+				int dst = toAirport[destinations[r]];
+				if(src != -1 && dst != -1) targets[next[src]++] = dst;
+			}
+
+			// sort every row and remove repeated destinations, compacting the array in place
+			int write = 0;
+			int rowStart = 0;
+			for(int i = 0; i < n; i++) {
+				int rowEnd = offsets[i + 1];
+				Arrays.sort(targets, rowStart, rowEnd);
+				offsets[i] = write;
+				int last = -1;
+				for(int e = rowStart; e < rowEnd; e++) {
+					if(targets[e] == last) continue;
+					last = targets[e];
+					targets[write++] = last;
+				}
+				rowStart = rowEnd;
+			}
+			offsets[n] = write;
+
+			// the network gets its own dictionary: airports added to the builder later must not show up in it
+			return new RouteNetwork(ids.copy(), Arrays.copyOf(codes, n), Arrays.copyOf(lats, n), Arrays.copyOf(lons, n),
+					Arrays.copyOf(altitudes, n), offsets, Arrays.copyOf(targets, write), routeCount);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package parsing;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates a block gzip (BGZF) file with several threads. BGZF files are multi member gzip files where every member
+ * stores its own compressed size in the header, so members can be split without inflating them and inflated
+ * independently. Plain multi member gzip files don't have that size, so they are read with GZIPInputStream.
+ *
+ * Members are read in order, inflated by a pool of threads and returned in order. At most a few members per thread
+ * are read ahead, so memory stays bounded however big the file is.
+ *
+ * @see CompressedInput
+ *
+ */
+class BlockGzipInputStream extends InputStream {
+
+	private static final int FIXED_HEADER = 12;
+	private static final int FEXTRA = 4;
+	// Members read ahead per thread
+	private static final int READ_AHEAD = 2;
+	// Largest inflated member allowed by the format
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+	private final DataInputStream in;
+	private final ExecutorService inflaters;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final int maxPending;
+	private boolean endOfInput = false;
+
+	// Member being returned
+	private byte[] block = new byte[0];
+	private int position = 0;
+
+	/**
+	 * @return true if the header is the header of a BGZF member (gzip with a BC extra subfield)
+	 */
+	static boolean isBlockGzip(byte[] header) {
+		return header.length >= 18 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B
+				&& (header[3] & FEXTRA) != 0 && header[12] == 'B' && header[13] == 'C';
+	}
+
+	BlockGzipInputStream(InputStream in, int threads) {
+		this.in = new DataInputStream(in);
+		this.maxPending = threads * READ_AHEAD;
+		inflaters = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "gzip-inflater");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!ensureBlock()) return -1;
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(!ensureBlock()) return -1;
+		int count = Math.min(len, block.length - position);
+		System.arraycopy(block, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return block.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(Future<byte[]> future : pending) future.cancel(true);
+		pending.clear();
+		inflaters.shutdownNow();
+		in.close();
+	}
+
+	/**
+	 * Moves to the next member with data if the current one has been read
+	 * @return false at the end of the file
+	 */
+	private boolean ensureBlock() throws IOException {
+		while(position == block.length) {
+			readAhead();
+			if(pending.isEmpty()) {
+				inflaters.shutdown();
+				return false;
+			}
+			try {
+				block = pending.poll().get();
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while inflating", e);
+			}catch(ExecutionException e) {
+				if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+				throw new IOException(e.getCause());
+			}
+			position = 0;
+		}
+		return true;
+	}
+
+	private void readAhead() throws IOException {
+		while(!endOfInput && pending.size() < maxPending) {
+			final byte[] member = readMember();
+			if(member == null) {
+				endOfInput = true;
+			}else {
+				pending.add(inflaters.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return inflate(member);
+					}
+				}));
+			}
+		}
+	}
+
+	/**
+	 * @return the compressed member, header and trailer included, or null at the end of the file
+	 */
+	private byte[] readMember() throws IOException {
+		int first = in.read();
+		if(first == -1) return null;
+		byte[] header = new byte[FIXED_HEADER];
+		header[0] = (byte)first;
+		in.readFully(header, 1, FIXED_HEADER - 1);
+		if((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != 8 || (header[3] & FEXTRA) == 0) {
+			throw new IOException("Not a block gzip member");
+		}
+
+		int extraLength = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+		byte[] extra = new byte[extraLength];
+		in.readFully(extra);
+
+		// BC subfield: total member size - 1
+		int memberSize = -1;
+		for(int i = 0; i + 4 <= extraLength; ) {
+			int fieldLength = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+			if(i + 4 + fieldLength > extraLength) throw new IOException("Corrupt block gzip member");
+			if(extra[i] == 'B' && extra[i + 1] == 'C' && fieldLength == 2) {
+				memberSize = ((extra[i + 4] & 0xFF) | (extra[i + 5] & 0xFF) << 8) + 1;
+			}
+			i += 4 + fieldLength;
+		}
+		if(memberSize == -1) throw new IOException("Gzip member without block size");
+		// header, extra field and the CRC and size of the trailer
+		if(memberSize < FIXED_HEADER + extraLength + 8) throw new IOException("Corrupt block gzip member");
+
+		byte[] member = new byte[memberSize];
+		System.arraycopy(header, 0, member, 0, FIXED_HEADER);
+		System.arraycopy(extra, 0, member, FIXED_HEADER, extraLength);
+		try {
+			in.readFully(member, FIXED_HEADER + extraLength, memberSize - FIXED_HEADER - extraLength);
+		}catch(EOFException e) {
+			throw new IOException("Truncated block gzip member", e);
+		}
+		return member;
+	}
+
+	private static byte[] inflate(byte[] member) throws IOException {
+		int extraLength = (member[10] & 0xFF) | (member[11] & 0xFF) << 8;
+		int start = FIXED_HEADER + extraLength;
+		int end = member.length - 8;
+		int crc = readInt(member, end);
+		int size = readInt(member, end + 4);
+		if(size < 0 || size > MAX_BLOCK_SIZE) throw new IOException("Corrupt block gzip member");
+
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(member, start, end - start);
+			int length = 0;
+			while(length < size && !inflater.finished()) {
+				int count = inflater.inflate(data, length, size - length);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				length += count;
+			}
+			if(length != size) throw new IOException("Corrupt block gzip member");
+		}catch(DataFormatException e) {
+			throw new IOException("Corrupt block gzip member", e);
+		}finally {
+			inflater.end();
+		}
+
+		CRC32 check = new CRC32();
+		check.update(data, 0, size);
+		if((int)check.getValue() != crc) throw new IOException("Block gzip member fails its CRC check");
+		return data;
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+	}
+}
@@ -0,0 +1,249 @@
+package parsing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import processing.core.PApplet;
+import processing.data.XML;
+
+/**
+ * Opens the input files of the parsers, decompressing them on the fly when they are compressed. The compression is
+ * detected by the first bytes of the file (or by its extension, .gz or .zst, when they aren't conclusive), so the
+ * parsers get the same lines whether the file is plain text, gzip (single or multi member) or zstd.
+ *
+ * Files are streamed through fixed size buffers: they are never inflated whole into memory. Zstd needs zstd-jni
+ * (com.github.luben.zstd) in the classpath; it is looked up when a zstd file is opened.
+ *
+ * Gzip files written in blocks (BGZF, as made by bgzip) can be inflated by several threads at once, see
+ * setDecompressionThreads.
+ *
+ * @see BlockGzipInputStream
+ *
+ */
+public class CompressedInput {
+
+	// Size of the buffers between the file, the decompressor and the parser
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	// Longest header needed to tell the formats apart
+	private static final int HEADER_SIZE = 18;
+
+	private static final String ZSTD_INPUT_STREAM = "com.github.luben.zstd.ZstdInputStream";
+
+	// Threads used to inflate block gzip files. 1 inflates them sequentially as any other gzip file
+	private static volatile int decompressionThreads = 1;
+
+	/**
+	 * Sets the number of threads that inflate block gzip (BGZF) files. Other files are always inflated sequentially.
+	 * @param threads number of threads, 1 to disable parallel decompression
+	 */
+	public static void setDecompressionThreads(int threads) {
+		decompressionThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param p PApplet used to find the file (data folder, sketch folder, absolute path or URL)
+	 * @param fileName
+	 * @return the decompressed contents of the file
+	 * @throws IOException if the file doesn't exist or can't be decompressed
+	 */
+	public static InputStream open(PApplet p, String fileName) throws IOException {
+		// createInputRaw, because createInput already inflates .gz files by their extension
+		InputStream raw = p.createInputRaw(fileName);
+		if(raw == null) throw new FileNotFoundException(fileName);
+		BufferedInputStream in = new BufferedInputStream(raw, BUFFER_SIZE);
+
+		byte[] header = new byte[HEADER_SIZE];
+		in.mark(HEADER_SIZE);
+		int length = in.read(header);
+		while(length != -1 && length < HEADER_SIZE) {
+			int read = in.read(header, length, HEADER_SIZE - length);
+			if(read == -1) break;
+			length += read;
+		}
+		in.reset();
+
+		String name = fileName.toLowerCase();
+		if(isGzip(header) || (length < 2 && name.endsWith(".gz"))) {
+			if(decompressionThreads > 1 && BlockGzipInputStream.isBlockGzip(header)) {
+				return new BlockGzipInputStream(in, decompressionThreads);
+			}
+			// GZIPInputStream reads every member of a multi member file
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+		if(isZstd(header) || (length < 4 && name.endsWith(".zst"))) {
+			return openZstd(in);
+		}
+		return in;
+	}
+
+	/**
+	 * @return a reader over the decompressed contents of the file, as UTF-8 text
+	 * @throws IOException if the file doesn't exist or can't be decompressed
+	 */
+	public static BufferedReader createReader(PApplet p, String fileName) throws IOException {
+		return new BufferedReader(new InputStreamReader(open(p, fileName), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Lines of a (possibly compressed) text file, read one at a time while they are iterated. Used in place of
+	 * PApplet.loadStrings, which reads the whole file into an array first.
+	 *
+	 * The file is opened here and stays open until the Lines are closed, so callers stopping before the last line (or
+	 * on an exception) must close them in a finally block:
+	 *
+	 *   CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+	 *   try {
+	 *   	for(String row : rows) ...
+	 *   }finally {
+	 *   	rows.close();
+	 *   }
+	 *
+	 * Errors are thrown as UncheckedIOException.
+	 */
+	public static Lines lines(PApplet p, String fileName) {
+		try {
+			return new Lines(createReader(p, fileName));
+		}catch(IOException e) {
+			throw new UncheckedIOException("Could not open " + fileName, e);
+		}
+	}
+
+	/**
+	 * Same as PApplet.loadXML, but the file may be compressed
+	 */
+	public static XML loadXML(PApplet p, String fileName) {
+		InputStream in = null;
+		try {
+			in = open(p, fileName);
+			return new XML(in);
+		}catch(Exception e) {
+			throw new RuntimeException("Could not load " + fileName, e);
+		}finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * @return the whole decompressed file as a String (for parsers that only take strings, such as GeoJSONReader)
+	 */
+	public static String loadString(PApplet p, String fileName) {
+		BufferedReader reader = null;
+		try {
+			reader = createReader(p, fileName);
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[BUFFER_SIZE];
+			int read;
+			while((read = reader.read(buffer)) != -1) text.append(buffer, 0, read);
+			return text.toString();
+		}catch(IOException e) {
+			throw new UncheckedIOException("Could not load " + fileName, e);
+		}finally {
+			closeQuietly(reader);
+		}
+	}
+
+	private static boolean isGzip(byte[] header) {
+		return (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+	}
+
+	private static boolean isZstd(byte[] header) {
+		return (header[0] & 0xFF) == 0x28 && (header[1] & 0xFF) == 0xB5
+				&& (header[2] & 0xFF) == 0x2F && (header[3] & 0xFF) == 0xFD;
+	}
+
+	private static InputStream openZstd(InputStream in) throws IOException {
+		try {
+			Class<?> type = Class.forName(ZSTD_INPUT_STREAM);
+			return (InputStream)type.getConstructor(InputStream.class).newInstance(in);
+		}catch(ClassNotFoundException e) {
+			in.close();
+			throw new IOException("Reading zstd files needs zstd-jni (" + ZSTD_INPUT_STREAM + ") in the classpath");
+		}catch(ReflectiveOperationException e) {
+			in.close();
+			throw new IOException("Could not open zstd stream", e);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if(closeable == null) return;
+		try {
+			closeable.close();
+		}catch(IOException e) {
+			// nothing else to do
+		}
+	}
+
+	/**
+	 * Lines of an open file, see lines. They can be iterated only once
+	 */
+	public static class Lines implements Iterable<String>, Closeable {
+		private final BufferedReader reader;
+		private boolean iterated = false;
+
+		Lines(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			if(iterated) throw new IllegalStateException("The lines can only be iterated once");
+			iterated = true;
+			return new LineIterator(reader);
+		}
+
+		/**
+		 * Closes the file (and the decompressor). Does nothing if it is already closed
+		 */
+		@Override
+		public void close() {
+			closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Reads a line ahead, closes the reader after the last one
+	 */
+	private static class LineIterator implements Iterator<String> {
+		private final BufferedReader reader;
+		private String next;
+
+		LineIterator(BufferedReader reader) {
+			this.reader = reader;
+			advance();
+		}
+
+		private void advance() {
+			try {
+				next = reader.readLine();
+				if(next == null) reader.close();
+			}catch(IOException e) {
+				closeQuietly(reader);
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public String next() {
+			if(next == null) throw new NoSuchElementException();
+			String line = next;
+			advance();
+			return line;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import processing.core.PApplet;
+import store.CovidCube;
 
 public class MyParseFeed {
 	
@@ -27,18 +28,34 @@ public class MyParseFeed {
 	// as well as compulsory prepayment and social health insurance contributions. They do not include external resources spent by governments on health.
 	final static String PUBLIC_EXPENDITURE_HEALTH_SERIES = "Domestic general government health expenditure (% of current health expenditure)";
 	
-	// HashMap containing the name of the countries and their code (needed for loading the covid data)
-	static HashMap<String, String> countryCodes = new HashMap<String, String>();
+	// Country codes of the last loadData(p, fileName) call, used by loadCovidData(p, fileName). Each call replaces them;
+	// the overloads taking a countryCodes map don't touch them
+	private static HashMap<String, String> lastCountryCodes = new HashMap<String, String>();
 	
 	/*
 	 * This method is to parse a file containing different information from
-	 * the world bank.
+	 * the world bank. The country codes are kept for the next loadCovidData(p, fileName) call.
 	 * 
 	 * @param p - PApplet being used
 	 * @param fileName - file name or URL for data source
 	 * @return A HashMap of country->average age of death
 	 */
 	public static ArrayList<HashMap<String, Float>> loadData(PApplet p, String fileName) {
+		HashMap<String, String> countryCodes = new HashMap<String, String>();
+		ArrayList<HashMap<String, Float>> hashList = loadData(p, fileName, countryCodes);
+		lastCountryCodes = countryCodes;
+		return hashList;
+	}
+	
+	/*
+	 * Same as loadData(p, fileName), but the country codes are put in the given map and not kept.
+	 * 
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
+	 * @param countryCodes - filled with the name of the countries and their code (needed for loading the covid data)
+	 * @return A HashMap of country->average age of death
+	 */
+	public static ArrayList<HashMap<String, Float>> loadData(PApplet p, String fileName, HashMap<String, String> countryCodes) {
 		// HashMap ArrayList containing data series
 		ArrayList<HashMap<String, Float>> hashList = new ArrayList<HashMap<String,Float>>();
 		// HashMap key: country ID and data: lifeExp at birth
@@ -50,64 +67,70 @@ public class MyParseFeed {
 		hashList.add(healthPerCapita);
 		hashList.add(publicHealth);
 
-		// get lines of csv file
-		String[] rows = p.loadStrings(fileName);
-		
-		// Reads rows
-		for (int row = 0; row < rows.length; row++) {
-			if(row == 0) continue; // first row contains columns names
+		// Reads rows, one line of the csv file at a time
+		boolean header = true;
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
+				if(header) {  // first row contains columns names
+					header = false;
+					continue;
+				}
 			
-			// split row by commas not in quotations
-			String[] columns = rows[row].split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-			if(columns.length == 0) break;  // we are done
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+				if(columns.length == 0) break;  // we are done
 			
-			// the data.csv file contains numerous series, this variable keeps track of which series we are currently checking
-			String currentSeries = columns[2];
+				// the data.csv file contains numerous series, this variable keeps track of which series we are currently checking
+				String currentSeries = columns[2];
 			
-			float avg_density = 0;
-			int densityCount = 0;
-			float avg_healthPerCapita = 0;
-			int healthPerCapitaCount = 0;
-			float avg_publicHealth = 0;
-			int publicHealthCount = 0;
+				float avg_density = 0;
+				int densityCount = 0;
+				float avg_healthPerCapita = 0;
+				int healthPerCapitaCount = 0;
+				float avg_publicHealth = 0;
+				int publicHealthCount = 0;
 			
-			for(int i = columns.length - 1; i > 3; i--) {
-				if(i > 3) {
-					// calculate the average value for the data period. Note that not every country has the same range of data (sadly).
-					// The algorithm will calculate the average for whatever range of years at our disposal
-					if(columns[i].equals("..")) continue;
-					Float value = Float.valueOf(columns[i]);
-					if(currentSeries.equals(DENSITY_SERIES)) {
-						densityCount++;
-						avg_density += value;
-					}else if(currentSeries.equals(HEALTH_EXPENDITURE_PER_CAPITA_SERIES)) {
-						healthPerCapitaCount++;
-						avg_healthPerCapita += value;
-					}else if(currentSeries.equals(PUBLIC_EXPENDITURE_HEALTH_SERIES)) {  // could have used "else" but I may add new series
-						publicHealthCount++;
-						avg_publicHealth += value;
+				for(int i = columns.length - 1; i > 3; i--) {
+					if(i > 3) {
+						// calculate the average value for the data period. Note that not every country has the same range of data (sadly).
+						// The algorithm will calculate the average for whatever range of years at our disposal
+						if(columns[i].equals("..")) continue;
+						Float value = Float.valueOf(columns[i]);
+						if(currentSeries.equals(DENSITY_SERIES)) {
+							densityCount++;
+							avg_density += value;
+						}else if(currentSeries.equals(HEALTH_EXPENDITURE_PER_CAPITA_SERIES)) {
+							healthPerCapitaCount++;
+							avg_healthPerCapita += value;
+						}else if(currentSeries.equals(PUBLIC_EXPENDITURE_HEALTH_SERIES)) {  // could have used "else" but I may add new series
+							publicHealthCount++;
+							avg_publicHealth += value;
+						}
 					}
 				}
-			}
-			String countryID = columns[1];
-			String country = columns[0];
+				String countryID = columns[1];
+				String country = columns[0];
 			
-			// add country to countryCodes map
-			if(!countryCodes.containsKey(country)) countryCodes.put(country, countryID);
+				// add country to countryCodes map
+				if(!countryCodes.containsKey(country)) countryCodes.put(country, countryID);
 			
-			if(currentSeries.equals(DENSITY_SERIES)) {
-				if(densityCount == 0) densityCount = 1;
-				avg_density = avg_density/densityCount;
-				populationDensity.put(countryID, avg_density);
-			}else if(currentSeries.equals(HEALTH_EXPENDITURE_PER_CAPITA_SERIES)) {
-				if(healthPerCapitaCount == 0) healthPerCapitaCount = 1;
-				avg_healthPerCapita = avg_healthPerCapita/healthPerCapitaCount;
-				healthPerCapita.put(countryID, avg_healthPerCapita);
-			}else if(currentSeries.equals(PUBLIC_EXPENDITURE_HEALTH_SERIES)) {
-				if(publicHealthCount == 0) publicHealthCount = 1;
-				avg_publicHealth = avg_publicHealth/publicHealthCount;
-				publicHealth.put(countryID, avg_publicHealth);
+				if(currentSeries.equals(DENSITY_SERIES)) {
+					if(densityCount == 0) densityCount = 1;
+					avg_density = avg_density/densityCount;
+					populationDensity.put(countryID, avg_density);
+				}else if(currentSeries.equals(HEALTH_EXPENDITURE_PER_CAPITA_SERIES)) {
+					if(healthPerCapitaCount == 0) healthPerCapitaCount = 1;
+					avg_healthPerCapita = avg_healthPerCapita/healthPerCapitaCount;
+					healthPerCapita.put(countryID, avg_healthPerCapita);
+				}else if(currentSeries.equals(PUBLIC_EXPENDITURE_HEALTH_SERIES)) {
+					if(publicHealthCount == 0) publicHealthCount = 1;
+					avg_publicHealth = avg_publicHealth/publicHealthCount;
+					publicHealth.put(countryID, avg_publicHealth);
+				}
 			}
+		}finally {
+			rows.close();
 		}
 
 		return hashList;
@@ -116,10 +139,45 @@ public class MyParseFeed {
 	/**
 	 * Loads the covid data. We are interested in the columns Cumulative_deaths and Cumulative_cases.
 	 * Since each country contains many days of data, we will get only the last day.
+	 * Countries are matched with the codes of the last loadData(p, fileName) call.
 	 * @param fileName
 	 * @return
 	 */
 	public static ArrayList<HashMap<String, Float>> loadCovidData(PApplet p, String fileName){
+		return loadCovidData(p, fileName, lastCountryCodes, null);
+	}
+	
+	/**
+	 * Same as loadCovidData(p, fileName), and adds the rows to a cube, see loadCovidData(p, fileName, countryCodes, cube)
+	 * @param fileName
+	 * @param cube builder the rows are added to, may be null
+	 * @return
+	 */
+	public static ArrayList<HashMap<String, Float>> loadCovidData(PApplet p, String fileName, CovidCube.Builder cube){
+		return loadCovidData(p, fileName, lastCountryCodes, cube);
+	}
+	
+	/**
+	 * Same as loadCovidData(p, fileName), but countries are matched with the given codes
+	 * @param fileName
+	 * @param countryCodes name of the countries and their code, as filled by loadData
+	 * @return
+	 */
+	public static ArrayList<HashMap<String, Float>> loadCovidData(PApplet p, String fileName, HashMap<String, String> countryCodes){
+		return loadCovidData(p, fileName, countryCodes, null);
+	}
+	
+	/**
+	 * Same as loadCovidData(p, fileName, countryCodes), and while reading the rows adds their daily new cases and deaths to a cube
+	 * by WHO region and date. Countries are added to the cube with the same code as in the returned maps, or with the
+	 * code of covid.csv (two letters) if they aren't in the world bank dataset.
+	 * @param fileName
+	 * @param countryCodes name of the countries and their code, as filled by loadData
+	 * @param cube builder the rows are added to, may be null
+	 * @return
+	 */
+	public static ArrayList<HashMap<String, Float>> loadCovidData(PApplet p, String fileName, HashMap<String, String> countryCodes,
+			CovidCube.Builder cube){
 		ArrayList<HashMap<String, Float>> mapList = new ArrayList<HashMap<String,Float>>();
 		
 		HashMap<String, Float> deathsMap = new HashMap<String, Float>();
@@ -128,33 +186,51 @@ public class MyParseFeed {
 		mapList.add(deathsMap);
 		mapList.add(casesMap);
 		
-		// get lines of csv file
-		String[] rows = p.loadStrings(fileName);
-
-		// Reads rows
-		for (int row = 0; row < rows.length; row++) {
-			if(row == 0) continue;
+		// Reads rows, one line of the csv file at a time. Rows are sorted by country and date, so when a row begins
+		// another country the previous row is the last day of its country
+		String[] previous = null;
+		// code of the country being read, null if it isn't in the world bank dataset
+		String countryCode = null;
+		String cubeCode = null;
+		boolean header = true;
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
+				if(header) {
+					header = false;
+					continue;
+				}
 			
-			// split row by commas not in quotations
-			String[] columns = rows[row].split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
 			
-			String country = columns[2];
-			if(row < rows.length - 1) {
-				// if next row begins another country, get data
-				if((row < rows.length - 1 && !rows[row + 1].split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)")[2].equals(country))
-						|| row == rows.length - 1) { // next row is a different country
-					String countryCode = countryCodes.get(country);
+				if(previous == null || !columns[2].equals(previous[2])) {  // this row begins a different country
+					// if the country isn't in the world bank dataset, add more solutions to solveMismatch,
+					// or perhaps this country simply isn't in the other dataset
+					if(previous != null && countryCode != null) {
+						deathsMap.put(countryCode, Float.valueOf(previous[7]));
+						casesMap.put(countryCode, Float.valueOf(previous[5]));
+					}
+				
+					String country = columns[2];
+					countryCode = countryCodes.get(country);
 					if(countryCode == null) {  // this country id isn't present in the dataset from world bank
 						countryCode = countryCodes.get(solveMismatch(country));  // try to fix it
-						if(countryCode == null) {
-							//System.out.println("Mismatch: " + country);
-							continue;  // add more solutions to solveMismatch, or perhaps this country simply isn't in the other dataset
-						}
 					}
-					deathsMap.put(countryCode, Float.valueOf(columns[7]));
-					casesMap.put(countryCode, Float.valueOf(columns[5]));
+					cubeCode = countryCode != null ? countryCode : columns[1].trim();
 				}
+				if(cube != null) {
+					cube.add(columns[0], cubeCode, columns[3].trim(), Long.parseLong(columns[4].trim()), Long.parseLong(columns[6].trim()));
+				}
+				previous = columns;
 			}
+		}finally {
+			rows.close();
+		}
+		// the last country has no next one to store it
+		if(previous != null && countryCode != null) {
+			deathsMap.put(countryCode, Float.valueOf(previous[7]));
+			casesMap.put(countryCode, Float.valueOf(previous[5]));
 		}
 		
 		return mapList;
@@ -6,11 +6,14 @@ import java.util.HashMap;
 import java.util.List;
 
 import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
 import de.fhpotsdam.unfolding.data.PointFeature;
 import de.fhpotsdam.unfolding.data.ShapeFeature;
 import de.fhpotsdam.unfolding.geo.Location;
+import network.RouteNetwork;
 import processing.core.PApplet;
 import processing.data.XML;
+import store.FeatureStore;
 
 public class ParseFeed {
 
@@ -25,7 +28,7 @@ public class ParseFeed {
 	public static List<PointFeature> parseEarthquake(PApplet p, String fileName) {
 		List<PointFeature> features = new ArrayList<PointFeature>();
 
-		XML rss = p.loadXML(fileName);
+		XML rss = CompressedInput.loadXML(p, fileName);
 		// Get all items
 		XML[] itemXML = rss.getChildren("entry");
 		PointFeature point;
@@ -78,7 +81,54 @@ public class ParseFeed {
 			return features;
 		}
 
-	
+	/*
+	 * Same as parseEarthquake, but the earthquakes are loaded into a FeatureStore
+	 * with columns title (TEXT), magnitude (FLOAT), depth (FLOAT) and age (DICTIONARY).
+	 *
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
+	 */
+	public static FeatureStore parseEarthquakeStore(PApplet p, String fileName) {
+		FeatureStore.Schema schema = new FeatureStore.Schema()
+				.add("title", FeatureStore.ColumnType.TEXT)
+				.add("magnitude", FeatureStore.ColumnType.FLOAT)
+				.add("depth", FeatureStore.ColumnType.FLOAT)
+				.add("age", FeatureStore.ColumnType.DICTIONARY);
+		FeatureStore store = new FeatureStore(schema);
+		int title = schema.indexOf("title");
+		int magnitude = schema.indexOf("magnitude");
+		int depth = schema.indexOf("depth");
+		int age = schema.indexOf("age");
+
+		XML rss = CompressedInput.loadXML(p, fileName);
+		XML[] itemXML = rss.getChildren("entry");
+		for (int i = 0; i < itemXML.length; i++) {
+			Location location = getLocationFromPoint(itemXML[i]);
+			if(location == null) continue;
+			int row = store.addRow(location.getLat(), location.getLon());
+
+			String titleStr = getStringVal(itemXML[i], "title");
+			if (titleStr != null) {
+				store.setString(row, title, titleStr);
+				store.setFloat(row, magnitude, Float.parseFloat(titleStr.substring(2, 5)));
+			}
+
+			// depth in km with one decimal place, as in parseEarthquake
+			int interVal = (int)(getFloatVal(itemXML[i], "georss:elev")/100);
+			store.setFloat(row, depth, Math.abs((float) interVal/10));
+
+			XML[] catXML = itemXML[i].getChildren("category");
+			for (int c = 0; c < catXML.length; c++) {
+				if ("Age".equals(catXML[c].getString("label"))) {
+					store.setString(row, age, catXML[c].getString("term"));
+				}
+			}
+		}
+		store.trim();
+
+		return store;
+	}
+
 	/*
 	 * Gets location from georss:point tag
 	 * 
@@ -141,50 +191,106 @@ public class ParseFeed {
 	public static List<PointFeature> parseAirports(PApplet p, String fileName) {
 		List<PointFeature> features = new ArrayList<PointFeature>();
 
-		String[] rows = p.loadStrings(fileName);
-		for (String row : rows) {
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
 			
-			// hot-fix for altitude when lat lon out of place
-			int i = 0;
+				// hot-fix for altitude when lat lon out of place
+				int i = 0;
 			
-			// split row by commas not in quotations
-			String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
 			
-			// get location and create feature
-			//System.out.println(columns[6]);
-			float lat = Float.parseFloat(columns[6]);
-			float lon = Float.parseFloat(columns[7]);
+				// get location and create feature
+				//System.out.println(columns[6]);
+				float lat = Float.parseFloat(columns[6]);
+				float lon = Float.parseFloat(columns[7]);
 			
-			Location loc = new Location(lat, lon);
-			PointFeature point = new PointFeature(loc);
+				Location loc = new Location(lat, lon);
+				PointFeature point = new PointFeature(loc);
 			
-			// set ID to OpenFlights unique identifier
-			point.setId(columns[0]);
+				// set ID to OpenFlights unique identifier
+				point.setId(columns[0]);
 			
-			// get other fields from csv
-			point.addProperty("name", columns[1]);
-			point.putProperty("city", columns[2]);
-			point.putProperty("country", columns[3]);
+				// get other fields from csv
+				point.addProperty("name", columns[1]);
+				point.putProperty("city", columns[2]);
+				point.putProperty("country", columns[3]);
 			
-			// pretty sure IATA/FAA is used in routes.dat
-			// get airport IATA/FAA code
-			if(!columns[4].equals("")) {
-				point.putProperty("code", columns[4]);
-			}
-			// get airport ICAO code if no IATA
-			else if(!columns[5].equals("")) {
-				point.putProperty("code", columns[5]);
-			}
+				// pretty sure IATA/FAA is used in routes.dat
+				// get airport IATA/FAA code
+				if(!columns[4].equals("")) {
+					point.putProperty("code", columns[4]);
+				}
+				// get airport ICAO code if no IATA
+				else if(!columns[5].equals("")) {
+					point.putProperty("code", columns[5]);
+				}
 			
-			point.putProperty("altitude", columns[8 + i]);
+				point.putProperty("altitude", columns[8 + i]);
 			
-			features.add(point);
+				features.add(point);
+			}
+		}finally {
+			rows.close();
 		}
 
 		return features;
-		
+
 	}
-	
+
+	/*
+	 * Same as parseAirports, but the airports are loaded into a FeatureStore with
+	 * columns id, name and code (TEXT), city and country (DICTIONARY) and altitude (FLOAT).
+	 *
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
+	 */
+	public static FeatureStore parseAirportsStore(PApplet p, String fileName) {
+		FeatureStore.Schema schema = new FeatureStore.Schema()
+				.add("id", FeatureStore.ColumnType.TEXT)
+				.add("name", FeatureStore.ColumnType.TEXT)
+				.add("city", FeatureStore.ColumnType.DICTIONARY)
+				.add("country", FeatureStore.ColumnType.DICTIONARY)
+				.add("code", FeatureStore.ColumnType.TEXT)
+				.add("altitude", FeatureStore.ColumnType.FLOAT);
+		FeatureStore store = new FeatureStore(schema);
+		int id = schema.indexOf("id");
+		int name = schema.indexOf("name");
+		int city = schema.indexOf("city");
+		int country = schema.indexOf("country");
+		int code = schema.indexOf("code");
+		int altitude = schema.indexOf("altitude");
+
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+				int r = store.addRow(Float.parseFloat(columns[6]), Float.parseFloat(columns[7]));
+				store.setString(r, id, columns[0]);
+				store.setString(r, name, columns[1]);
+				store.setString(r, city, columns[2]);
+				store.setString(r, country, columns[3]);
+
+				// IATA/FAA code, or ICAO if there is no IATA
+				if(!columns[4].equals("")) {
+					store.setString(r, code, columns[4]);
+				}else if(!columns[5].equals("")) {
+					store.setString(r, code, columns[5]);
+				}
+
+				store.setFloat(r, altitude, Float.parseFloat(columns[8]));
+			}
+		}finally {
+			rows.close();
+		}
+		store.trim();
+
+		return store;
+	}
+
 	
 
 	/*
@@ -200,24 +306,27 @@ public class ParseFeed {
 	public static List<ShapeFeature> parseRoutes(PApplet p, String fileName) {
 		List<ShapeFeature> routes = new ArrayList<ShapeFeature>();
 		
-		String[] rows = p.loadStrings(fileName);
-		
-		for(String row : rows) {
-			String[] columns = row.split(",");
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
+				String[] columns = row.split(",");
 			
-			ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
+				ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
 			
-			// set id to be OpenFlights identifier for source airport
+				// set id to be OpenFlights identifier for source airport
 			
-			// check that both airports on route have OpenFlights Identifier
-			if(!columns[3].equals("\\N") && !columns[5].equals("\\N")){
-				// set "source" property to be OpenFlights identifier for source airport
-				route.putProperty("source", columns[3]);
-				// "destination property" -- OpenFlights identifier
-				route.putProperty("destination", columns[5]);
+				// check that both airports on route have OpenFlights Identifier
+				if(!columns[3].equals("\\N") && !columns[5].equals("\\N")){
+					// set "source" property to be OpenFlights identifier for source airport
+					route.putProperty("source", columns[3]);
+					// "destination property" -- OpenFlights identifier
+					route.putProperty("destination", columns[5]);
 				
-				routes.add(route);
+					routes.add(route);
+				}
 			}
+		}finally {
+			rows.close();
 		}
 			
 		
@@ -227,6 +336,65 @@ public class ParseFeed {
 		
 	}
 	
+
+	/*
+	 * This method parses the OpenFlights airports and routes files (same formats as
+	 * parseAirports and parseRoutes) straight into a RouteNetwork, without creating
+	 * a Feature per airport or route.
+	 *
+	 * @param p - PApplet being used
+	 * @param airportsFileName - file name or URL for airports.dat
+	 * @param routesFileName - file name or URL for routes.dat
+	 */
+	public static RouteNetwork parseRouteNetwork(PApplet p, String airportsFileName, String routesFileName) {
+		RouteNetwork.Builder builder = new RouteNetwork.Builder();
+
+		CompressedInput.Lines airportRows = CompressedInput.lines(p, airportsFileName);
+		try {
+			for(String row : airportRows) {
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+				// IATA/FAA code, or ICAO if there is no IATA (as read by parseAirports)
+				String code = !columns[4].equals("") ? columns[4] : columns[5];
+
+				builder.addAirport(columns[0], code, Float.parseFloat(columns[6]), Float.parseFloat(columns[7]),
+						Float.parseFloat(columns[8]));
+			}
+		}finally {
+			airportRows.close();
+		}
+
+		CompressedInput.Lines routeRows = CompressedInput.lines(p, routesFileName);
+		try {
+			for(String row : routeRows) {
+				String[] columns = row.split(",");
+
+				// check that both airports on route have OpenFlights Identifier
+				if(!columns[3].equals("\\N") && !columns[5].equals("\\N")){
+					builder.addRoute(columns[3], columns[5]);
+				}
+			}
+		}finally {
+			routeRows.close();
+		}
+
+		return builder.build();
+	}
+
+	
+
+	/*
+	 * Same as GeoJSONReader.loadData, but the file may be compressed.
+	 * GeoJSONReader only parses strings, so the file is decompressed into one.
+	 *
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
+	 */
+	public static List<Feature> parseGeoJSON(PApplet p, String fileName) {
+		return GeoJSONReader.loadDataFromJSON(p, CompressedInput.loadString(p, fileName));
+	}
+
 	
 
 	/*
@@ -246,32 +414,34 @@ public class ParseFeed {
 		// HashMap key: country ID and  data: lifeExp at birth
 		HashMap<String, Float> lifeExpMap = new HashMap<String, Float>();
 
-		// get lines of csv file
-		String[] rows = p.loadStrings(fileName);
-		
-		// Reads country name and population density value from CSV row
-		for (String row : rows) {
-			// split row by commas not in quotations
-			String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+		// Reads country name and population density value from CSV row, one line of the csv file at a time
+		CompressedInput.Lines rows = CompressedInput.lines(p, fileName);
+		try {
+			for(String row : rows) {
+				// split row by commas not in quotations
+				String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
 			
-			// check if there is any life expectancy data from any year, get most recent
-			/*
-			 * EXTENSION: Add code to also get the year the data is from.
-			 * You may want to use a list of Floats as the  values for the HashMap
-			 * and store the year as the second value. (There are many other ways to do this)
-			 */
-			//
-			for(int i = columns.length - 1; i > 3; i--) {
+				// check if there is any life expectancy data from any year, get most recent
+				/*
+				 * EXTENSION: Add code to also get the year the data is from.
+				 * You may want to use a list of Floats as the  values for the HashMap
+				 * and store the year as the second value. (There are many other ways to do this)
+				 */
+				//
+				for(int i = columns.length - 1; i > 3; i--) {
 				
-				// check if value exists for year
-				if(!columns[i].equals("..")) {
-					lifeExpMap.put(columns[3], Float.parseFloat(columns[i]));
+					// check if value exists for year
+					if(!columns[i].equals("..")) {
+						lifeExpMap.put(columns[3], Float.parseFloat(columns[i]));
 					
-					// break once most recent data is found
-					break;
+						// break once most recent data is found
+						break;
+					}
 				}
-			}
 			
+			}
+		}finally {
+			rows.close();
 		}
 
 		return lifeExpMap;
@@ -0,0 +1,344 @@
+package store;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Covid cases and deaths pre-aggregated by (WHO region | country) x (day | week | month).
+ *
+ * For every entity and granularity the cube keeps the running totals of its buckets (prefix sums), so the value of a
+ * cell and the total of any range of buckets are a subtraction of two array entries, however many rows were read.
+ * Regions are the sum of their countries; getCountriesOf drills down from a region to them.
+ *
+ * Weeks start on Monday. Bucket indexes go from 0 (the bucket of the first date read) to getBucketCount - 1.
+ *
+ * Use the Builder (or MyParseFeed.loadCovidData) to create it.
+ *
+ * @see parsing.MyParseFeed#loadCovidData
+ *
+ */
+public class CovidCube {
+
+	public enum Dimension { REGION, COUNTRY }
+	public enum Granularity { DAY, WEEK, MONTH }
+	public enum Measure { CASES, DEATHS }
+
+	private final StringDictionary regions;
+	private final StringDictionary countries;
+	private final int[] countryRegion;
+	// countries of each region, sorted
+	private final int[][] regionCountries;
+
+	// first day read (epoch day) and absolute index of the first bucket of each granularity
+	private final int firstDay;
+	private final int[] firstBucket;
+	private final int[] bucketCount;
+
+	// [dimension][granularity][measure][entity * (bucketCount + 1) + bucket]: total of the buckets before bucket
+	private final long[][][][] prefix;
+
+	private CovidCube(StringDictionary regions, StringDictionary countries, int[] countryRegion, int[][] regionCountries,
+			int firstDay, int[] firstBucket, int[] bucketCount, long[][][][] prefix) {
+		this.regions = regions;
+		this.countries = countries;
+		this.countryRegion = countryRegion;
+		this.regionCountries = regionCountries;
+		this.firstDay = firstDay;
+		this.firstBucket = firstBucket;
+		this.bucketCount = bucketCount;
+		this.prefix = prefix;
+	}
+
+	public int getRegionCount() {
+		return regions.size();
+	}
+
+	public String getRegion(int region) {
+		return regions.get(region);
+	}
+
+	/**
+	 * @return index of the WHO region (AFRO, EURO...), or -1 if there is no such region
+	 */
+	public int indexOfRegion(String region) {
+		return regions.indexOf(region);
+	}
+
+	public int getCountryCount() {
+		return countries.size();
+	}
+
+	public String getCountry(int country) {
+		return countries.get(country);
+	}
+
+	/**
+	 * @return index of the country code, or -1 if there is no such country
+	 */
+	public int indexOfCountry(String countryCode) {
+		return countries.indexOf(countryCode);
+	}
+
+	public int getRegionOf(int country) {
+		return countryRegion[country];
+	}
+
+	/**
+	 * @return indexes of the countries of a region (do not modify)
+	 */
+	public int[] getCountriesOf(int region) {
+		return regionCountries[region];
+	}
+
+	/**
+	 * @return number of regions or countries
+	 */
+	public int size(Dimension dimension) {
+		return dimension == Dimension.REGION ? getRegionCount() : getCountryCount();
+	}
+
+	public int getBucketCount(Granularity granularity) {
+		return bucketCount[granularity.ordinal()];
+	}
+
+	/**
+	 * @return bucket of the date, it may be out of range (negative or >= getBucketCount)
+	 */
+	public int getBucket(Granularity granularity, LocalDate date) {
+		return absoluteBucket(granularity, date) - firstBucket[granularity.ordinal()];
+	}
+
+	/**
+	 * @return first day of the bucket
+	 */
+	public LocalDate getBucketStart(Granularity granularity, int bucket) {
+		int absolute = bucket + firstBucket[granularity.ordinal()];
+		switch(granularity) {
+		case DAY:
+			return LocalDate.ofEpochDay(absolute);
+		case WEEK:
+			return LocalDate.ofEpochDay(absolute * 7L - 3);
+		default:
+			return LocalDate.of(Math.floorDiv(absolute, 12), Math.floorMod(absolute, 12) + 1, 1);
+		}
+	}
+
+	/**
+	 * @return value of a single cell
+	 */
+	public long get(Dimension dimension, int entity, Granularity granularity, int bucket, Measure measure) {
+		return getTotal(dimension, entity, granularity, bucket, bucket, measure);
+	}
+
+	/**
+	 * @return total of the buckets from firstBucket to lastBucket, both included
+	 */
+	public long getTotal(Dimension dimension, int entity, Granularity granularity, int firstBucket, int lastBucket, Measure measure) {
+		int buckets = bucketCount[granularity.ordinal()];
+		firstBucket = Math.max(firstBucket, 0);
+		lastBucket = Math.min(lastBucket, buckets - 1);
+		if(firstBucket > lastBucket) return 0;
+		long[] sums = prefix[dimension.ordinal()][granularity.ordinal()][measure.ordinal()];
+		int row = entity * (buckets + 1);
+		return sums[row + lastBucket + 1] - sums[row + firstBucket];
+	}
+
+	/**
+	 * @return total of every date read
+	 */
+	public long getTotal(Dimension dimension, int entity, Measure measure) {
+		int buckets = bucketCount[Granularity.DAY.ordinal()];
+		return getTotal(dimension, entity, Granularity.DAY, 0, buckets - 1, measure);
+	}
+
+	/**
+	 * @return the first day read, or null if the cube is empty
+	 */
+	public LocalDate getFirstDate() {
+		return bucketCount[0] == 0 ? null : LocalDate.ofEpochDay(firstDay);
+	}
+
+	private static int absoluteBucket(Granularity granularity, LocalDate date) {
+		switch(granularity) {
+		case DAY:
+			return (int)date.toEpochDay();
+		case WEEK:
+			// 1970-01-01 was a Thursday, weeks start 3 days before
+			return (int)Math.floorDiv(date.toEpochDay() + 3, 7);
+		default:
+			return date.getYear() * 12 + date.getMonthValue() - 1;
+		}
+	}
+
+	/**
+	 * Collects daily rows (in any order) and aggregates them into a CovidCube. Rows are summed into a daily series
+	 * per country while they are added, so memory depends on countries and days, not on the number of rows.
+	 */
+	public static class Builder {
+		private StringDictionary regions = new StringDictionary();
+		private StringDictionary countries = new StringDictionary();
+		private int[] countryRegion = new int[256];
+
+		// daily values of each country, from countryFirstDay (epoch day)
+		private int[] countryFirstDay = new int[256];
+		private long[][] cases = new long[256][];
+		private long[][] deaths = new long[256][];
+
+		private int firstDay = Integer.MAX_VALUE;
+		private int lastDay = Integer.MIN_VALUE;
+
+		/**
+		 * Adds the new cases and deaths of a country in a day. If the country was already added in another region,
+		 * the last region wins.
+		 *
+		 * @param date day in ISO format (yyyy-mm-dd)
+		 * @param countryCode
+		 * @param region WHO region
+		 * @param newCases
+		 * @param newDeaths
+		 */
+		public Builder add(String date, String countryCode, String region, long newCases, long newDeaths) {
+			return add(parseDay(date), countryCode, region, newCases, newDeaths);
+		}
+
+		/**
+		 * Same as add(String, ...) with the day as epoch day
+		 */
+		public Builder add(int day, String countryCode, String region, long newCases, long newDeaths) {
+			int country = countries.intern(countryCode);
+			if(country == countryRegion.length) {
+				int capacity = countryRegion.length * 2;
+				countryRegion = Arrays.copyOf(countryRegion, capacity);
+				countryFirstDay = Arrays.copyOf(countryFirstDay, capacity);
+				cases = Arrays.copyOf(cases, capacity);
+				deaths = Arrays.copyOf(deaths, capacity);
+			}
+			countryRegion[country] = regions.intern(region);
+
+			if(cases[country] == null) {
+				countryFirstDay[country] = day;
+				cases[country] = new long[64];
+				deaths[country] = new long[64];
+			}else if(day < countryFirstDay[country]) {
+				// grow to the left, rows before the first one of the country are rare
+				int shift = countryFirstDay[country] - day;
+				cases[country] = shiftRight(cases[country], shift);
+				deaths[country] = shiftRight(deaths[country], shift);
+				countryFirstDay[country] = day;
+			}
+			int offset = day - countryFirstDay[country];
+			if(offset >= cases[country].length) {
+				int capacity = Math.max(offset + 1, cases[country].length * 2);
+				cases[country] = Arrays.copyOf(cases[country], capacity);
+				deaths[country] = Arrays.copyOf(deaths[country], capacity);
+			}
+			cases[country][offset] += newCases;
+			deaths[country][offset] += newDeaths;
+
+			firstDay = Math.min(firstDay, day);
+			lastDay = Math.max(lastDay, day);
+			return this;
+		}
+
+		private static long[] shiftRight(long[] values, int shift) {
+			long[] shifted = new long[values.length + shift];
+			System.arraycopy(values, 0, shifted, shift, values.length);
+			return shifted;
+		}
+
+		/**
+		 * Parses yyyy-mm-dd without creating intermediate strings
+		 * @return epoch day
+		 */
+		public static int parseDay(String date) {
+			date = date.trim();
+			if(date.length() != 10) throw new NumberFormatException("Not a yyyy-mm-dd date: " + date);
+			int year = digits(date, 0, 4);
+			int month = digits(date, 5, 7);
+			int day = digits(date, 8, 10);
+			return (int)LocalDate.of(year, month, day).toEpochDay();
+		}
+
+		private static int digits(String text, int start, int end) {
+			int value = 0;
+			for(int i = start; i < end; i++) {
+				char c = text.charAt(i);
+				if(c < '0' || c > '9') throw new NumberFormatException("Not a yyyy-mm-dd date: " + text);
+				value = value * 10 + c - '0';
+			}
+			return value;
+		}
+
+		public CovidCube build() {
+			int countryCount = countries.size();
+			int regionCount = regions.size();
+			int days = firstDay > lastDay ? 0 : lastDay - firstDay + 1;
+			int granularities = Granularity.values().length;
+			int measures = Measure.values().length;
+
+			// bucket of every day, for each granularity
+			int[] firstBucket = new int[granularities];
+			int[] bucketCount = new int[granularities];
+			int[][] dayBucket = new int[granularities][days];
+			for(Granularity granularity : Granularity.values()) {
+				int g = granularity.ordinal();
+				if(days == 0) continue;
+				firstBucket[g] = absoluteBucket(granularity, LocalDate.ofEpochDay(firstDay));
+				for(int d = 0; d < days; d++) {
+					dayBucket[g][d] = absoluteBucket(granularity, LocalDate.ofEpochDay(firstDay + d)) - firstBucket[g];
+				}
+				bucketCount[g] = dayBucket[g][days - 1] + 1;
+			}
+
+			// sum the days into the buckets, each bucket stored at bucket + 1 so the running total is done in place
+			long[][][][] prefix = new long[Dimension.values().length][granularities][measures][];
+			for(int g = 0; g < granularities; g++) {
+				for(int m = 0; m < measures; m++) {
+					prefix[Dimension.REGION.ordinal()][g][m] = new long[regionCount * (bucketCount[g] + 1)];
+					prefix[Dimension.COUNTRY.ordinal()][g][m] = new long[countryCount * (bucketCount[g] + 1)];
+				}
+			}
+			for(int c = 0; c < countryCount; c++) {
+				int region = countryRegion[c];
+				int start = countryFirstDay[c] - firstDay;
+				for(int i = 0; i < cases[c].length && start + i < days; i++) {
+					long dayCases = cases[c][i];
+					long dayDeaths = deaths[c][i];
+					if(dayCases == 0 && dayDeaths == 0) continue;
+					for(int g = 0; g < granularities; g++) {
+						int bucket = dayBucket[g][start + i] + 1;
+						int row = bucketCount[g] + 1;
+						prefix[Dimension.COUNTRY.ordinal()][g][Measure.CASES.ordinal()][c * row + bucket] += dayCases;
+						prefix[Dimension.COUNTRY.ordinal()][g][Measure.DEATHS.ordinal()][c * row + bucket] += dayDeaths;
+						prefix[Dimension.REGION.ordinal()][g][Measure.CASES.ordinal()][region * row + bucket] += dayCases;
+						prefix[Dimension.REGION.ordinal()][g][Measure.DEATHS.ordinal()][region * row + bucket] += dayDeaths;
+					}
+				}
+			}
+			for(long[][][] dimension : prefix) {
+				for(int g = 0; g < granularities; g++) {
+					int row = bucketCount[g] + 1;
+					for(long[] sums : dimension[g]) {
+						for(int start = 0; start < sums.length; start += row) {
+							for(int b = start + 1; b < start + row; b++) sums[b] += sums[b - 1];
+						}
+					}
+				}
+			}
+
+			// drill down lists
+			int[] regionSizes = new int[regionCount];
+			for(int c = 0; c < countryCount; c++) regionSizes[countryRegion[c]]++;
+			int[][] regionCountries = new int[regionCount][];
+			for(int r = 0; r < regionCount; r++) regionCountries[r] = new int[regionSizes[r]];
+			Arrays.fill(regionSizes, 0);
+			for(int c = 0; c < countryCount; c++) {
+				int r = countryRegion[c];
+				regionCountries[r][regionSizes[r]++] = c;
+			}
+
+			return new CovidCube(regions, countries, Arrays.copyOf(countryRegion, countryCount), regionCountries,
+					firstDay, firstBucket, bucketCount, prefix);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+
+/**
+ * Columnar store of point features. Instead of a PointFeature with a Location and a HashMap of boxed properties per
+ * point, every property is a column described by a Schema:
+ *  - FLOAT columns are float[] (NaN when a row has no value)
+ *  - DICTIONARY columns are int[] of codes into a StringDictionary, for strings that repeat a lot (age buckets,
+ *    countries, cities). -1 when a row has no value
+ *  - TEXT columns are String[], for strings that are different in every row (titles, names, ids)
+ *
+ * Latitude and longitude are float[] columns as well. A feature is just its row index.
+ *
+ * @see Schema
+ * @see map.StoreMarker
+ *
+ */
+public class FeatureStore {
+
+	public enum ColumnType { FLOAT, DICTIONARY, TEXT }
+
+	/**
+	 * Names and types of the columns of a store
+	 */
+	public static class Schema {
+		private ArrayList<String> names = new ArrayList<String>();
+		private ArrayList<ColumnType> types = new ArrayList<ColumnType>();
+		private HashMap<String, Integer> columns = new HashMap<String, Integer>();
+
+		public Schema add(String name, ColumnType type) {
+			if(columns.containsKey(name)) throw new IllegalArgumentException("Repeated column: " + name);
+			columns.put(name, names.size());
+			names.add(name);
+			types.add(type);
+			return this;
+		}
+
+		public int size() {
+			return names.size();
+		}
+
+		public String getName(int column) {
+			return names.get(column);
+		}
+
+		public ColumnType getType(int column) {
+			return types.get(column);
+		}
+
+		/**
+		 * @return index of the column, or -1 if there is no column with that name
+		 */
+		public int indexOf(String name) {
+			Integer column = columns.get(name);
+			return column == null ? -1 : column;
+		}
+	}
+
+	private final Schema schema;
+	private int size = 0;
+	private int capacity = 1024;
+
+	private float[] lats = new float[capacity];
+	private float[] lons = new float[capacity];
+
+	// One entry per schema column. Only the array matching the column type is not null
+	private final float[][] floats;
+	private final int[][] codes;
+	private final String[][] texts;
+	private final StringDictionary[] dictionaries;
+
+	public FeatureStore(Schema schema) {
+		this.schema = schema;
+		int n = schema.size();
+		floats = new float[n][];
+		codes = new int[n][];
+		texts = new String[n][];
+		dictionaries = new StringDictionary[n];
+		for(int c = 0; c < n; c++) {
+			switch(schema.getType(c)) {
+			case FLOAT:
+				floats[c] = new float[capacity];
+				break;
+			case DICTIONARY:
+				codes[c] = new int[capacity];
+				dictionaries[c] = new StringDictionary();
+				break;
+			case TEXT:
+				texts[c] = new String[capacity];
+				break;
+			}
+		}
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a feature with every property missing
+	 * @return the row of the new feature
+	 */
+	public int addRow(float lat, float lon) {
+		if(size == capacity) grow(capacity * 2);
+		lats[size] = lat;
+		lons[size] = lon;
+		for(int c = 0; c < schema.size(); c++) {
+			if(floats[c] != null) floats[c][size] = Float.NaN;
+			if(codes[c] != null) codes[c][size] = -1;
+			if(texts[c] != null) texts[c][size] = null;
+		}
+		return size++;
+	}
+
+	private void grow(int newCapacity) {
+		lats = Arrays.copyOf(lats, newCapacity);
+		lons = Arrays.copyOf(lons, newCapacity);
+		for(int c = 0; c < schema.size(); c++) {
+			if(floats[c] != null) floats[c] = Arrays.copyOf(floats[c], newCapacity);
+			if(codes[c] != null) codes[c] = Arrays.copyOf(codes[c], newCapacity);
+			if(texts[c] != null) texts[c] = Arrays.copyOf(texts[c], newCapacity);
+		}
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Shrinks the columns to the number of rows, to be called once loading is finished
+	 */
+	public void trim() {
+		if(size < capacity) grow(Math.max(size, 1));
+	}
+
+	public float getLat(int row) {
+		return lats[row];
+	}
+
+	public float getLon(int row) {
+		return lons[row];
+	}
+
+	public Location getLocation(int row) {
+		return new Location(lats[row], lons[row]);
+	}
+
+	public void setFloat(int row, int column, float value) {
+		floats[column][row] = value;
+	}
+
+	public float getFloat(int row, int column) {
+		return floats[column][row];
+	}
+
+	/**
+	 * Sets the value of a DICTIONARY or TEXT column
+	 */
+	public void setString(int row, int column, String value) {
+		if(codes[column] != null) {
+			codes[column][row] = value == null ? -1 : dictionaries[column].intern(value);
+		}else {
+			texts[column][row] = value;
+		}
+	}
+
+	/**
+	 * @return value of a DICTIONARY or TEXT column, or null if the row has no value
+	 */
+	public String getString(int row, int column) {
+		if(codes[column] != null) {
+			int code = codes[column][row];
+			return code == -1 ? null : dictionaries[column].get(code);
+		}
+		return texts[column][row];
+	}
+
+	/**
+	 * @return dictionary code of the value of a DICTIONARY column (-1 if the row has no value). Comparing codes is
+	 * cheaper than comparing strings when filtering rows
+	 */
+	public int getCode(int row, int column) {
+		return codes[column][row];
+	}
+
+	public StringDictionary getDictionary(int column) {
+		return dictionaries[column];
+	}
+
+	/**
+	 * Value of any column as an object (Float or String), null if the row has no value.
+	 * Meant for code that still works with feature properties, not for loops over the whole store.
+	 */
+	public Object getValue(int row, int column) {
+		if(floats[column] != null) {
+			float value = floats[column][row];
+			return Float.isNaN(value) ? null : value;
+		}
+		return getString(row, column);
+	}
+
+	/**
+	 * @return properties of a row as a HashMap, like the ones of a PointFeature
+	 */
+	public HashMap<String, Object> getProperties(int row) {
+		HashMap<String, Object> properties = new HashMap<String, Object>();
+		for(int c = 0; c < schema.size(); c++) {
+			Object value = getValue(row, c);
+			if(value != null) properties.put(schema.getName(c), value);
+		}
+		return properties;
+	}
+}
@@ -0,0 +1,61 @@
+package store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns strings to dense int codes (0, 1, 2...) in order of first appearance.
+ * 
+ * Used wherever a column of repeating strings (OpenFlights ids, countries, age buckets...) is better stored
+ * as an int[] of codes plus one copy of every distinct value.
+ * 
+ * @see network.RouteNetwork
+ *
+ */
+public class StringDictionary {
+	
+	private HashMap<String, Integer> codes = new HashMap<String, Integer>();
+	private ArrayList<String> values = new ArrayList<String>();
+	
+	/**
+	 * Returns the code of the given value, adding it to the dictionary if it isn't present yet
+	 * @param value
+	 * @return
+	 */
+	public int intern(String value) {
+		Integer code = codes.get(value);
+		if(code == null) {
+			code = values.size();
+			codes.put(value, code);
+			values.add(value);
+		}
+		return code;
+	}
+	
+	/**
+	 * @param value
+	 * @return the code of the value, or -1 if it isn't in the dictionary
+	 */
+	public int indexOf(String value) {
+		Integer code = codes.get(value);
+		return code == null ? -1 : code;
+	}
+	
+	public String get(int code) {
+		return values.get(code);
+	}
+	
+	public int size() {
+		return values.size();
+	}
+	
+	/**
+	 * @return a dictionary with the same codes, independent of this one
+	 */
+	public StringDictionary copy() {
+		StringDictionary copy = new StringDictionary();
+		copy.codes.putAll(codes);
+		copy.values.addAll(values);
+		return copy;
+	}
+}